@@ -0,0 +1,108 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import br.com.ziben.persistence.HibernateFactory;
+
+/**
+ * The in-memory database of a benchmark: the factory configured by benchmark.cfg.xml,
+ * loaded with the readings of some sensors before the first iteration.
+ * Each fork gets its own database, so the writes of a benchmark do not change
+ * the data the others read.
+ * @author ccardozo
+ *
+ */
+@State(Scope.Benchmark)
+public class BenchmarkDatabase {
+
+	public static final String FACTORY = "benchmark";
+	private static final int LOAD_CHUNK = 1000;
+
+	/** readings loaded */
+	@Param({ "10000" })
+	public int rows;
+
+	/** sensors, the readings are spread among them */
+	@Param({ "100" })
+	public int sensors;
+
+	private Long[] ids;
+	private File configFile;
+
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		configFile = File.createTempFile("benchmark", ".cfg.xml");
+		try (InputStream in = BenchmarkDatabase.class.getResourceAsStream("/benchmark.cfg.xml")) {
+			Files.copy(in, configFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		HibernateFactory.configure(FACTORY, configFile);
+		HibernateFactory.buildSessionFactory(FACTORY);
+
+		List<Sensor> sensorList = new ArrayList<Sensor>(sensors);
+		for (int i = 0; i < sensors; i++) {
+			sensorList.add(new Sensor(sensorName(i)));
+		}
+		new SensorDAO(FACTORY).saveAll(sensorList);
+
+		ids = new Long[rows];
+		List<Reading> chunk = new ArrayList<Reading>(LOAD_CHUNK);
+		for (int i = 0; i < rows; i++) {
+			chunk.add(new Reading(sensorName(i % sensors), i));
+			if (chunk.size() == LOAD_CHUNK || i == rows - 1) {
+				new ReadingDAO(FACTORY).saveAll(chunk);
+				for (int j = 0; j < chunk.size(); j++) {
+					ids[i - chunk.size() + 1 + j] = chunk.get(j).getId();
+				}
+				chunk.clear();
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void close() {
+		HibernateFactory.closeFactory(FACTORY);
+		configFile.delete();
+	}
+
+	public Long randomId() {
+		return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+	}
+
+	public String randomSensor() {
+		return sensorName(ThreadLocalRandom.current().nextInt(sensors));
+	}
+
+	static String sensorName(int i) {
+		return "sensor-" + i;
+	}
+}
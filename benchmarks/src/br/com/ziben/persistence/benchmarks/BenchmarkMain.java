@@ -0,0 +1,61 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.benchmarks;
+
+import java.util.Arrays;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the JMH command line options, saving the results as JSON
+ * (target/jmh-result.json) unless -rf/-rff say otherwise, to be compared between builds.
+ * With "load" as the first argument runs the {@link LoadTest} instead.
+ * @author ccardozo
+ *
+ */
+public class BenchmarkMain {
+
+	public static final String DEFAULT_RESULT = "target/jmh-result.json";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("load")) {
+			LoadTest.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		CommandLineOptions options;
+		try {
+			options = new CommandLineOptions(args);
+		} catch (CommandLineOptionException e) {
+			System.err.println("Error parsing command line: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(options);
+		if (!options.getResultFormat().hasValue()) {
+			builder.resultFormat(ResultFormatType.JSON);
+		}
+		if (!options.getResult().hasValue()) {
+			builder.result(DEFAULT_RESULT);
+		}
+		new Runner(builder.build()).run();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.benchmarks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The hot paths of GenericSessionDAO, each call on a new DAO as the applications do.
+ * find() measures what the DAO does: session.load, a proxy not initialized.
+ * @author ccardozo
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-XX:+IgnoreUnrecognizedVMOptions", "--add-opens=java.base/java.lang=ALL-UNNAMED" })
+public class DaoBenchmarks {
+
+	private static final int PAGE_SIZE = 50;
+	private static final List<String> PROJECTION = Arrays.asList("sensor", "value");
+
+	@Benchmark
+	public Reading persist(BenchmarkDatabase db) {
+		Reading reading = new Reading(db.randomSensor(), ThreadLocalRandom.current().nextDouble());
+		new ReadingDAO(BenchmarkDatabase.FACTORY).persist(reading);
+		return reading;
+	}
+
+	@Benchmark
+	public Reading save(BenchmarkDatabase db) {
+		Reading reading = new Reading(db.randomSensor(), ThreadLocalRandom.current().nextDouble());
+		new ReadingDAO(BenchmarkDatabase.FACTORY).save(reading);
+		return reading;
+	}
+
+	@Benchmark
+	public Object find(BenchmarkDatabase db) {
+		return new ReadingDAO(BenchmarkDatabase.FACTORY).find(db.randomId());
+	}
+
+	@Benchmark
+	public List<Reading> findAll(BenchmarkDatabase db) {
+		return new ReadingDAO(BenchmarkDatabase.FACTORY).findAll();
+	}
+
+	@Benchmark
+	public List<Reading> findByCriteria(BenchmarkDatabase db) {
+		ReadingDAO dao = new ReadingDAO(BenchmarkDatabase.FACTORY);
+		dao.setEq("sensor", db.randomSensor());
+		dao.setOrderDesc("recorded");
+		return dao.findByCriteria();
+	}
+
+	@Benchmark
+	public List<Reading> findByCriteriaProjection(BenchmarkDatabase db) {
+		ReadingDAO dao = new ReadingDAO(BenchmarkDatabase.FACTORY);
+		dao.setEq("sensor", db.randomSensor());
+		dao.setProjectionFields(PROJECTION);
+		return dao.findByCriteria();
+	}
+
+	@Benchmark
+	public Long rowsCountCriteria(BenchmarkDatabase db) {
+		ReadingDAO dao = new ReadingDAO(BenchmarkDatabase.FACTORY);
+		dao.setEq("sensor", db.randomSensor());
+		return dao.rowsCountCriteria();
+	}
+
+	@Benchmark
+	public List<Reading> listForPaginationShallow(BenchmarkDatabase db) {
+		ReadingDAO dao = new ReadingDAO(BenchmarkDatabase.FACTORY);
+		dao.setOrderAsc("id");
+		return dao.listForPagination(0, PAGE_SIZE);
+	}
+
+	@Benchmark
+	public List<Reading> listForPaginationDeep(BenchmarkDatabase db) {
+		ReadingDAO dao = new ReadingDAO(BenchmarkDatabase.FACTORY);
+		dao.setOrderAsc("id");
+		return dao.listForPagination(db.rows - PAGE_SIZE, PAGE_SIZE);
+	}
+
+	@Benchmark
+	public Sensor multiDaoTransaction(BenchmarkDatabase db) {
+		return SensorDAO.recordReading(BenchmarkDatabase.FACTORY, db.randomSensor(), ThreadLocalRandom.current().nextDouble());
+	}
+}
@@ -0,0 +1,371 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.benchmarks;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hibernate.PessimisticLockException;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.exception.LockAcquisitionException;
+import org.hibernate.exception.LockTimeoutException;
+
+import br.com.ziben.persistence.HibernateFactory;
+import br.com.ziben.persistence.metrics.LatencyHistogram;
+import br.com.ziben.persistence.pool.PoolMetrics;
+import br.com.ziben.persistence.pool.PooledConnectionProvider;
+
+/**
+ * Load generator: N worker threads run a weighted mix of DAO operations on the
+ * benchmark database for a while, and every interval the throughput, latency
+ * percentiles, errors, lock conflicts (deadlocks and lock timeouts) and the wait
+ * for a pool connection are printed. With a list of thread counts it runs once
+ * for each, ending with a table to see the scaling across cores.<br>
+ * Arguments are key=value:
+ * <ul>
+ * <li>threads: thread counts, comma separated (default the processors)</li>
+ * <li>duration, warmup, interval: seconds of each run, of the warm up before the first one and between reports (60, 10, 5)</li>
+ * <li>profile: read-heavy (default, 70% reads), write-heavy, read-only, or mix=find:35,page:35,persist:10,update:10,transaction:10</li>
+ * <li>rows, sensors: data loaded (10000, 100)</li>
+ * </ul>
+ * The pool is sized by -Dpersistence.pool.max_size and the like.
+ * @author ccardozo
+ *
+ */
+public class LoadTest {
+
+	/** the operations of the mix */
+	enum Operation {
+		/** GenericSessionDAO.find of a random id */
+		FIND,
+		/** a page of 50 at a random offset, ordered by id */
+		PAGE,
+		/** a new reading */
+		PERSIST,
+		/** a reading rewritten */
+		UPDATE,
+		/** a reading and its sensor on a SessionDAOCtrl transaction */
+		TRANSACTION
+	}
+
+	static final Map<String, String> PROFILES = new LinkedHashMap<String, String>();
+	static {
+		PROFILES.put("read-heavy", "find:35,page:35,persist:10,update:10,transaction:10");
+		PROFILES.put("write-heavy", "find:15,page:15,persist:30,update:20,transaction:20");
+		PROFILES.put("read-only", "find:50,page:50");
+	}
+
+	private static final int PAGE_SIZE = 50;
+
+	private final BenchmarkDatabase db;
+	private final Map<Operation, Integer> mix;
+	private final int totalWeight;
+
+	LoadTest(BenchmarkDatabase db, Map<Operation, Integer> mix) {
+		this.db = db;
+		this.mix = mix;
+		int total = 0;
+		for (final int weight : mix.values()) {
+			total += weight;
+		}
+		this.totalWeight = total;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Map<String, String> options = new LinkedHashMap<String, String>();
+		options.put("threads", String.valueOf(Runtime.getRuntime().availableProcessors()));
+		options.put("duration", "60");
+		options.put("warmup", "10");
+		options.put("interval", "5");
+		options.put("profile", "read-heavy");
+		options.put("rows", "10000");
+		options.put("sensors", "100");
+		for (final String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals < 0 || !options.containsKey(arg.substring(0, equals)) && !arg.startsWith("mix=")) {
+				System.err.println("Unknown argument " + arg + ", expected key=value of " + options.keySet() + " or mix");
+				System.exit(1);
+			}
+			options.put(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+		String mix = options.containsKey("mix") ? options.get("mix") : PROFILES.get(options.get("profile"));
+		if (mix == null) {
+			System.err.println("Unknown profile " + options.get("profile") + ", one of " + PROFILES.keySet());
+			System.exit(1);
+		}
+
+		BenchmarkDatabase db = new BenchmarkDatabase();
+		db.rows = Integer.parseInt(options.get("rows"));
+		db.sensors = Integer.parseInt(options.get("sensors"));
+		db.load();
+		try {
+			LoadTest test = new LoadTest(db, parseMix(mix));
+			long interval = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("interval")));
+			long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("duration")));
+			List<String> summary = new ArrayList<String>();
+			String[] threadCounts = options.get("threads").split(",");
+			System.out.println("Mix " + test.mix + ", " + db.rows + " rows, " + HibernateFactory.getPoolMetrics(BenchmarkDatabase.FACTORY));
+			long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("warmup")));
+			if (warmup > 0) {
+				test.run("Warm up", Integer.parseInt(threadCounts[0].trim()), warmup, warmup);
+			}
+			for (final String threads : threadCounts) {
+				int count = Integer.parseInt(threads.trim());
+				summary.add(test.run("Run with " + count + " threads", count, duration, interval));
+			}
+			System.out.println();
+			System.out.println(String.format("%8s %10s %10s %10s %8s %8s %12s", "threads", "ops/s", "p50 ms", "p99 ms",
+					"errors", "locks", "pool wait us"));
+			for (final String line : summary) {
+				System.out.println(line);
+			}
+		} finally {
+			db.close();
+		}
+	}
+
+	static Map<Operation, Integer> parseMix(String mix) {
+		Map<Operation, Integer> weights = new EnumMap<Operation, Integer>(Operation.class);
+		for (final String entry : mix.split(",")) {
+			String[] parts = entry.trim().split(":");
+			int weight = Integer.parseInt(parts[1].trim());
+			if (weight > 0) {
+				weights.put(Operation.valueOf(parts[0].trim().toUpperCase()), weight);
+			}
+		}
+		if (weights.isEmpty()) {
+			throw new IllegalArgumentException("Empty mix: " + mix);
+		}
+		return weights;
+	}
+
+	/**
+	 * Run the workers for the duration, reporting each interval
+	 * @return the summary line of the run
+	 */
+	String run(String title, int threads, long duration, long interval) throws InterruptedException {
+		final Map<Operation, OperationStats> stats = new EnumMap<Operation, OperationStats>(Operation.class);
+		for (final Operation op : mix.keySet()) {
+			stats.put(op, new OperationStats());
+		}
+		final LatencyHistogram all = new LatencyHistogram();
+		final long deadline = System.nanoTime() + duration;
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (System.nanoTime() < deadline) {
+							Operation op = pick();
+							long start = System.nanoTime();
+							try {
+								execute(op);
+								long nanos = System.nanoTime() - start;
+								stats.get(op).success(nanos);
+								all.record(nanos);
+							} catch (RuntimeException e) {
+								stats.get(op).failure(isLockConflict(e));
+							}
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "load-" + i);
+			worker.setDaemon(true);
+			worker.start();
+		}
+
+		System.out.println();
+		System.out.println(title);
+		PoolWait poolWait = new PoolWait();
+		PoolWait runWait = new PoolWait();
+		long started = System.nanoTime();
+		long last = started;
+		boolean finished = false;
+		while (!finished) {
+			// a full interval, or what is left of the run when the workers stop
+			finished = done.await(interval, TimeUnit.NANOSECONDS);
+			long now = System.nanoTime();
+			report(String.format("[%4ds]", TimeUnit.NANOSECONDS.toSeconds(now - started)), stats, now - last, poolWait);
+			last = now;
+		}
+
+		long calls = all.getCount();
+		long errors = 0;
+		long locks = 0;
+		for (final OperationStats op : stats.values()) {
+			errors += op.totalErrors.sum();
+			locks += op.totalLocks.sum();
+		}
+		return String.format("%8d %10.1f %10.2f %10.2f %7.2f%% %7.2f%% %12.1f", threads, calls * 1e9 / (last - started),
+				all.getPercentile(50) / 1e6, all.getPercentile(99) / 1e6, percent(errors, calls + errors),
+				percent(locks, calls + errors), runWait.meanMicros());
+	}
+
+	private void report(String label, Map<Operation, OperationStats> stats, long elapsed, PoolWait poolWait) {
+		long calls = 0;
+		long errors = 0;
+		long locks = 0;
+		StringBuilder lines = new StringBuilder();
+		for (final Map.Entry<Operation, OperationStats> entry : stats.entrySet()) {
+			OperationStats op = entry.getValue();
+			LatencyHistogram latency = op.interval.getAndSet(new LatencyHistogram());
+			long opErrors = op.errors.sumThenReset();
+			long opLocks = op.locks.sumThenReset();
+			calls += latency.getCount();
+			errors += opErrors;
+			locks += opLocks;
+			lines.append(String.format("%n       %-12s %9.1f/s  p50 %8.2fms  p99 %8.2fms  max %8.2fms  errors %d", entry.getKey()
+					.name().toLowerCase(), latency.getCount() * 1e9 / elapsed, latency.getPercentile(50) / 1e6,
+					latency.getPercentile(99) / 1e6, latency.getMax() / 1e6, opErrors));
+		}
+		PoolMetrics pool = HibernateFactory.getPoolMetrics(BenchmarkDatabase.FACTORY);
+		System.out.println(String.format("%s %.1f ops/s, errors %.2f%%, locks %.2f%%, pool wait %.1fus, active %d/%d, waiters %d%s",
+				label, calls * 1e9 / elapsed, percent(errors, calls + errors), percent(locks, calls + errors),
+				poolWait.meanMicros(), pool == null ? 0 : pool.getActive(), pool == null ? 0 : pool.getMaxSize(),
+				pool == null ? 0 : pool.getWaiters(), lines));
+	}
+
+	Operation pick() {
+		int choice = ThreadLocalRandom.current().nextInt(totalWeight);
+		for (final Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+			choice -= entry.getValue();
+			if (choice < 0) {
+				return entry.getKey();
+			}
+		}
+		throw new IllegalStateException();
+	}
+
+	void execute(Operation op) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		switch (op) {
+		case FIND:
+			new ReadingDAO(BenchmarkDatabase.FACTORY).find(db.randomId());
+			break;
+		case PAGE:
+			ReadingDAO pages = new ReadingDAO(BenchmarkDatabase.FACTORY);
+			pages.setOrderAsc("id");
+			pages.listForPagination(random.nextInt(Math.max(1, db.rows - PAGE_SIZE)), PAGE_SIZE);
+			break;
+		case PERSIST:
+			new ReadingDAO(BenchmarkDatabase.FACTORY).persist(new Reading(db.randomSensor(), random.nextDouble()));
+			break;
+		case UPDATE:
+			Reading reading = new Reading(db.randomSensor(), random.nextDouble());
+			reading.setId(db.randomId());
+			new ReadingDAO(BenchmarkDatabase.FACTORY).update(reading);
+			break;
+		case TRANSACTION:
+			SensorDAO.recordReading(BenchmarkDatabase.FACTORY, db.randomSensor(), random.nextDouble());
+			break;
+		}
+	}
+
+	/**
+	 * Deadlock or lock timeout, by the Hibernate exceptions or the SQL state
+	 */
+	static boolean isLockConflict(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+			if (cause instanceof LockAcquisitionException || cause instanceof LockTimeoutException
+					|| cause instanceof PessimisticLockException) {
+				return true;
+			}
+			if (cause instanceof SQLException) {
+				String state = ((SQLException) cause).getSQLState();
+				if (state != null && (state.startsWith("40") || state.equals("HYT00"))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static double percent(long part, long total) {
+		return total == 0 ? 0 : part * 100.0 / total;
+	}
+
+	/**
+	 * Calls of one operation: the latencies of the current interval, the errors of it and of the whole run
+	 */
+	static final class OperationStats {
+		final AtomicReference<LatencyHistogram> interval = new AtomicReference<LatencyHistogram>(new LatencyHistogram());
+		final LongAdder errors = new LongAdder();
+		final LongAdder locks = new LongAdder();
+		final LongAdder totalErrors = new LongAdder();
+		final LongAdder totalLocks = new LongAdder();
+
+		void success(long nanos) {
+			interval.get().record(nanos);
+		}
+
+		void failure(boolean lockConflict) {
+			errors.increment();
+			totalErrors.increment();
+			if (lockConflict) {
+				locks.increment();
+				totalLocks.increment();
+			}
+		}
+	}
+
+	/**
+	 * Mean wait for a pool connection since the previous call, from the
+	 * acquire histogram of the PooledConnectionProvider
+	 */
+	static final class PoolWait {
+		private long count;
+		private double sum;
+
+		PoolWait() {
+			meanMicros();
+		}
+
+		double meanMicros() {
+			LatencyHistogram acquire = acquireTime();
+			if (acquire == null) {
+				return 0;
+			}
+			long nowCount = acquire.getCount();
+			double nowSum = acquire.getMean() * nowCount;
+			double mean = nowCount == count ? 0 : (nowSum - sum) / (nowCount - count) / 1000;
+			count = nowCount;
+			sum = nowSum;
+			return mean;
+		}
+
+		private static LatencyHistogram acquireTime() {
+			SessionFactoryImplementor factory = (SessionFactoryImplementor) HibernateFactory.getSessionFactory(BenchmarkDatabase.FACTORY);
+			ConnectionProvider provider = factory == null ? null : factory.getServiceRegistry().getService(ConnectionProvider.class);
+			return provider != null && provider.isUnwrappableAs(PooledConnectionProvider.class)
+					? provider.unwrap(PooledConnectionProvider.class).getAcquireTime() : null;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.benchmarks;
+
+import java.util.Date;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * A reading of a sensor, the entity written and queried by the benchmarks
+ * @author ccardozo
+ *
+ */
+@Entity
+@Table(name = "reading", indexes = { @Index(columnList = "sensor") })
+public class Reading {
+
+	@Id
+	@GeneratedValue
+	private Long id;
+	private String sensor;
+	private double value;
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date recorded;
+
+	public Reading() {
+	}
+
+	public Reading(String sensor, double value) {
+		this.sensor = sensor;
+		this.value = value;
+		this.recorded = new Date();
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+
+	public String getSensor() {
+		return sensor;
+	}
+
+	public void setSensor(String sensor) {
+		this.sensor = sensor;
+	}
+
+	public double getValue() {
+		return value;
+	}
+
+	public void setValue(double value) {
+		this.value = value;
+	}
+
+	public Date getRecorded() {
+		return recorded;
+	}
+
+	public void setRecorded(Date recorded) {
+		this.recorded = recorded;
+	}
+}
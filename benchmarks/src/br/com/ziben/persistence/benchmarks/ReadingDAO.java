@@ -0,0 +1,86 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.benchmarks;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+
+import br.com.ziben.persistence.BatchResult;
+import br.com.ziben.persistence.GenericSessionDAO;
+import br.com.ziben.persistence.SessionDAOCtrl;
+
+/**
+ * DAO of the readings, opening the operations of GenericSessionDAO to the benchmarks
+ * @author ccardozo
+ *
+ */
+public class ReadingDAO extends GenericSessionDAO<Reading> {
+
+	public ReadingDAO(String factoryName) {
+		super(factoryName);
+	}
+
+	public ReadingDAO(SessionDAOCtrl ctrl) {
+		super(ctrl);
+	}
+
+	@Override
+	public void persist(Reading obj) {
+		super.persist(obj);
+	}
+
+	@Override
+	public void save(Reading obj) {
+		super.save(obj);
+	}
+
+	@Override
+	public void update(Reading obj) {
+		super.update(obj);
+	}
+
+	@Override
+	public Object find(Serializable id) {
+		return super.find(id);
+	}
+
+	@Override
+	public List<Reading> findAll() {
+		return super.findAll();
+	}
+
+	@Override
+	public List<Reading> findByCriteria() {
+		return super.findByCriteria();
+	}
+
+	@Override
+	public Long rowsCountCriteria() {
+		return super.rowsCountCriteria();
+	}
+
+	@Override
+	public List<Reading> listForPagination(int start, int finish) {
+		return super.listForPagination(start, finish);
+	}
+
+	@Override
+	public BatchResult saveAll(Collection<? extends Reading> objs) {
+		return super.saveAll(objs);
+	}
+}
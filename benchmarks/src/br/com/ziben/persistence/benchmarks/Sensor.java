@@ -0,0 +1,74 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.benchmarks;
+
+import java.util.Date;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * A sensor and its last reading, updated with the readings on the
+ * multi-DAO transactions
+ * @author ccardozo
+ *
+ */
+@Entity
+@Table(name = "sensor")
+public class Sensor {
+
+	@Id
+	private String name;
+	private double lastValue;
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date updated;
+
+	public Sensor() {
+	}
+
+	public Sensor(String name) {
+		this.name = name;
+		this.updated = new Date();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public double getLastValue() {
+		return lastValue;
+	}
+
+	public void setLastValue(double lastValue) {
+		this.lastValue = lastValue;
+	}
+
+	public Date getUpdated() {
+		return updated;
+	}
+
+	public void setUpdated(Date updated) {
+		this.updated = updated;
+	}
+}
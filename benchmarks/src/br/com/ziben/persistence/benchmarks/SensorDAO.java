@@ -0,0 +1,85 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.benchmarks;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+import br.com.ziben.persistence.BatchResult;
+import br.com.ziben.persistence.GenericSessionDAO;
+import br.com.ziben.persistence.HibernateFactory;
+import br.com.ziben.persistence.SessionDAOCtrl;
+
+/**
+ * DAO of the sensors, opening the operations of GenericSessionDAO to the benchmarks
+ * @author ccardozo
+ *
+ */
+public class SensorDAO extends GenericSessionDAO<Sensor> {
+
+	public SensorDAO(String factoryName) {
+		super(factoryName);
+	}
+
+	public SensorDAO(SessionDAOCtrl ctrl) {
+		super(ctrl);
+	}
+
+	@Override
+	public Object find(Serializable id) {
+		return super.find(id);
+	}
+
+	@Override
+	public void update(Sensor obj) {
+		super.update(obj);
+	}
+
+	@Override
+	public BatchResult saveAll(Collection<? extends Sensor> objs) {
+		return super.saveAll(objs);
+	}
+
+	/**
+	 * A reading and the last value of its sensor written by two DAOs
+	 * on the transaction of a SessionDAOCtrl
+	 * @param factoryName
+	 * @param name of the sensor
+	 * @param value
+	 * @return the sensor updated
+	 */
+	public static Sensor recordReading(String factoryName, String name, double value) {
+		SessionDAOCtrl ctrl = new SessionDAOCtrl(factoryName);
+		try {
+			ctrl.beginTransaction();
+			SensorDAO sensors = new SensorDAO(ctrl);
+			Sensor sensor = (Sensor) sensors.find(name);
+			new ReadingDAO(ctrl).save(new Reading(name, value));
+			sensor.setLastValue(value);
+			sensors.update(sensor);
+			ctrl.commitTransaction();
+			return sensor;
+		} catch (RuntimeException e) {
+			ctrl.rollbackTransaction();
+			throw e;
+		} finally {
+			if (ctrl.getSession().isOpen()) {
+				HibernateFactory.close(ctrl.getSession());
+			}
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.hibernate.criterion.Criterion;
+
+/**
+ * Asynchronous facade of a DAO: each operation runs on a {@link DaoExecutor} and
+ * returns a CompletableFuture, completed with the result or with the
+ * DataAccessLayerException of the DAO.<br>
+ * A DAO keeps its session and criteria as fields, so every call gets a fresh one
+ * from the supplier and nothing is shared between concurrent calls:
+ * <pre>
+ * AsyncDAO&lt;Reading, ReadingDAO&gt; readings = new AsyncDAO&lt;Reading, ReadingDAO&gt;(ReadingDAO::new);
+ * readings.call(dao -&gt; dao.findBySensor("s1")).thenAccept(...);
+ * </pre>
+ * @author ccardozo
+ *
+ * @param <T> the entity
+ * @param <D> the DAO of the entity
+ */
+public class AsyncDAO<T, D extends GenericSessionDAO<T>> {
+
+	private final Supplier<? extends D> daos;
+	private final DaoExecutor executor;
+
+	/**
+	 * On the executor of the factory of the DAOs
+	 * @param daos a new DAO on each call
+	 */
+	public AsyncDAO(Supplier<? extends D> daos) {
+		this(daos, DaoExecutor.forFactory(daos.get().getFactoryName()));
+	}
+
+	public AsyncDAO(Supplier<? extends D> daos, DaoExecutor executor) {
+		this.daos = daos;
+		this.executor = executor;
+	}
+
+	/**
+	 * Run any operation of the DAO, e.g. its own finders or criteria set before a query
+	 * @param operation on a new DAO
+	 * @return its result
+	 */
+	public <R> CompletableFuture<R> call(final Function<? super D, ? extends R> operation) {
+		return executor.submit(() -> operation.apply(daos.get()));
+	}
+
+	public CompletableFuture<Void> persist(final T obj) {
+		return call(dao -> {
+			dao.persist(obj);
+			return null;
+		});
+	}
+
+	public CompletableFuture<Void> save(final T obj) {
+		return call(dao -> {
+			dao.save(obj);
+			return null;
+		});
+	}
+
+	public CompletableFuture<Void> update(final T obj) {
+		return call(dao -> {
+			dao.update(obj);
+			return null;
+		});
+	}
+
+	public CompletableFuture<Void> delete(final T obj) {
+		return call(dao -> {
+			dao.delete(obj);
+			return null;
+		});
+	}
+
+	public CompletableFuture<BatchResult> persistAll(final Collection<? extends T> objs) {
+		return call(dao -> dao.persistAll(objs));
+	}
+
+	public CompletableFuture<BatchResult> saveAll(final Collection<? extends T> objs) {
+		return call(dao -> dao.saveAll(objs));
+	}
+
+	public CompletableFuture<BatchResult> updateAll(final Collection<? extends T> objs) {
+		return call(dao -> dao.updateAll(objs));
+	}
+
+	public CompletableFuture<BatchResult> deleteAll(final Collection<? extends T> objs) {
+		return call(dao -> dao.deleteAll(objs));
+	}
+
+	public CompletableFuture<Object> find(final Serializable id) {
+		return call(dao -> dao.find(id));
+	}
+
+	public CompletableFuture<List<T>> findAll() {
+		return call(dao -> dao.findAll());
+	}
+
+	/**
+	 * @deprecated as the findByCriteria(Criterion...) it runs; {@link #call(Function)} the
+	 *             setters of the DAO and its findByCriteria() instead
+	 */
+	@Deprecated
+	public CompletableFuture<List<T>> findByCriteria(final Criterion... criterion) {
+		return call(dao -> dao.findByCriteria(criterion));
+	}
+
+	public CompletableFuture<Long> rowsCount() {
+		return call(dao -> dao.rowsCount());
+	}
+
+	public CompletableFuture<List<T>> listForPagination(final int start, final int finish) {
+		return call(dao -> dao.listForPagination(start, finish));
+	}
+
+	public CompletableFuture<List<T>> listForPagination(final int start, final int finish, final Criterion... criterion) {
+		return call(dao -> dao.listForPagination(start, finish, criterion));
+	}
+
+	public CompletableFuture<KeysetPage<T>> listForPagination(final KeysetCursor after, final int pageSize) {
+		return call(dao -> dao.listForPagination(after, pageSize));
+	}
+
+	/**
+	 * @see DaoExecutor#inTransaction(String, Function)
+	 */
+	public <R> CompletableFuture<R> inTransaction(final String factoryName, final Function<? super SessionDAOCtrl, ? extends R> work) {
+		return executor.inTransaction(factoryName, work);
+	}
+
+	public DaoExecutor getExecutor() {
+		return executor;
+	}
+}
@@ -0,0 +1,38 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package br.com.ziben.persistence;
+
+/**
+ * Thrown when a bulk write fails; carries the report of what was
+ * committed until the failure, and of what the rollback undid.
+ */
+public class BatchException extends DataAccessLayerException {
+
+	private static final long serialVersionUID = -3015243396508410287L;
+
+	private final BatchResult result;
+
+	public BatchException(BatchResult result, Throwable cause) {
+		super("Bulk write failed: " + result, cause);
+		this.result = result;
+	}
+
+	public BatchResult getResult() {
+		return result;
+	}
+}
@@ -0,0 +1,137 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a bulk write: how many rows went in each chunk written and,
+ * if something went wrong, which chunk failed and why.<br>
+ * A chunk is written once committed or, under a SessionDAOCtrl transaction, once
+ * handed to it (the controller commits it). The chunks flushed but undone by the
+ * rollback of a failure are not written: they are reported apart, and have to be
+ * sent again.
+ * @author ccardozo
+ *
+ */
+public class BatchResult implements Serializable {
+
+	private static final long serialVersionUID = 2164873029180526563L;
+
+	private final List<Integer> chunkRows = new ArrayList<Integer>();
+	private final List<Integer> rolledBackRows = new ArrayList<Integer>();
+	private int failedChunk = -1;
+	private Throwable failure;
+
+	/**
+	 * Register a chunk written: committed, or handed to the SessionDAOCtrl transaction
+	 * @param rows
+	 */
+	void addChunk(int rows) {
+		chunkRows.add(rows);
+	}
+
+	/**
+	 * Register the failure of the chunk being written
+	 * @param cause
+	 */
+	void fail(Throwable cause) {
+		fail(cause, Collections.<Integer> emptyList());
+	}
+
+	/**
+	 * Register the failure of the chunk being written, after the rollback of the chunks
+	 * flushed before it in the same transaction
+	 * @param cause
+	 * @param rolledBack rows of each chunk undone by the rollback, in order
+	 */
+	void fail(Throwable cause, List<Integer> rolledBack) {
+		this.rolledBackRows.addAll(rolledBack);
+		this.failedChunk = chunkRows.size() + rolledBackRows.size();
+		this.failure = cause;
+	}
+
+	/**
+	 * @return number of chunks written (committed) with success
+	 */
+	public int getChunkCount() {
+		return chunkRows.size();
+	}
+
+	/**
+	 * @return rows written on each chunk, in order
+	 */
+	public List<Integer> getChunkRows() {
+		return Collections.unmodifiableList(chunkRows);
+	}
+
+	/**
+	 * @return total of rows written on all chunks
+	 */
+	public long getTotalRows() {
+		long total = 0;
+		for (final Integer rows : chunkRows) {
+			total += rows;
+		}
+		return total;
+	}
+
+	/**
+	 * @return rows of each chunk flushed but undone by the rollback of the failure, in
+	 * order, after the chunks written
+	 */
+	public List<Integer> getRolledBackChunkRows() {
+		return Collections.unmodifiableList(rolledBackRows);
+	}
+
+	/**
+	 * @return total of rows flushed but undone by the rollback of the failure
+	 */
+	public long getRolledBackRows() {
+		long total = 0;
+		for (final Integer rows : rolledBackRows) {
+			total += rows;
+		}
+		return total;
+	}
+
+	public boolean isSuccessful() {
+		return failure == null;
+	}
+
+	/**
+	 * @return index of the failed chunk, counting the written and the rolled back ones
+	 * before it, or -1 if all went fine
+	 */
+	public int getFailedChunk() {
+		return failedChunk;
+	}
+
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	@Override
+	public String toString() {
+		return "BatchResult[chunks=" + chunkRows.size() + ", rows=" + getTotalRows()
+				+ (rolledBackRows.isEmpty() ? "" : ", rolledBackChunks=" + rolledBackRows.size() + ", rolledBackRows=" + getRolledBackRows())
+				+ (failure == null ? "" : ", failedChunk=" + failedChunk + ", failure=" + failure) + "]";
+	}
+}
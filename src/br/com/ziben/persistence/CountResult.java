@@ -0,0 +1,63 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.io.Serializable;
+
+/**
+ * A count of rows and where it came from
+ * @author ccardozo
+ *
+ */
+public class CountResult implements Serializable {
+
+	private static final long serialVersionUID = -6384912756073340215L;
+
+	public enum Source {
+		/** COUNT(*) on the database */
+		EXACT_QUERY,
+		/** row estimate of the optimizer statistics, as old as the last analyze */
+		APPROXIMATE_STATISTICS,
+		/** in-memory counter kept by the DAO writes, see {@link RowCounter} */
+		EXACT_COUNTER
+	}
+
+	private final long count;
+	private final Source source;
+
+	CountResult(long count, Source source) {
+		this.count = count;
+		this.source = source;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public Source getSource() {
+		return source;
+	}
+
+	public boolean isExact() {
+		return source != Source.APPROXIMATE_STATISTICS;
+	}
+
+	@Override
+	public String toString() {
+		return count + " (" + source + ")";
+	}
+}
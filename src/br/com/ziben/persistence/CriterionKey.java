@@ -0,0 +1,238 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.hibernate.criterion.BetweenExpression;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.IdentifierEqExpression;
+import org.hibernate.criterion.InExpression;
+import org.hibernate.criterion.Junction;
+import org.hibernate.criterion.LikeExpression;
+import org.hibernate.criterion.LogicalExpression;
+import org.hibernate.criterion.NotExpression;
+import org.hibernate.criterion.NotNullExpression;
+import org.hibernate.criterion.NullExpression;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.PropertyExpression;
+import org.hibernate.criterion.SimpleExpression;
+
+/**
+ * Value key of the criterions of a query, for the {@link ResultCache}: the property
+ * names, the operators and the typed values (dates by their milliseconds), not the
+ * toString() of the criterions, which Hibernate does not define for all of them and
+ * prints dates to the second in the local timezone.<br>
+ * Only the criterions of {@link org.hibernate.criterion.Restrictions} read here, with
+ * values of simple types, have a key; for any other the query is not cached. Their
+ * fields are private in Hibernate 4.3, so they are read by reflection.
+ * @author ccardozo
+ *
+ */
+final class CriterionKey {
+
+	private static final Logger log = Logger.getLogger(CriterionKey.class);
+
+	/** deprecated, so known by its name only */
+	private static final String ILIKE = "org.hibernate.criterion.IlikeExpression";
+
+	private static final ConcurrentMap<String, Field> fields = new ConcurrentHashMap<String, Field>();
+
+	private CriterionKey() {
+	}
+
+	/**
+	 * @param criterions a conjunction, in any order
+	 * @return the key, or null if some criterion has none
+	 */
+	static String of(List<Criterion> criterions) {
+		List<String> keys = new ArrayList<String>(criterions.size());
+		for (final Criterion criterion : criterions) {
+			StringBuilder key = new StringBuilder();
+			if (!append(key, criterion)) {
+				return null;
+			}
+			keys.add(key.toString());
+		}
+		// the order the criterions were added does not matter
+		Collections.sort(keys);
+		return keys.toString();
+	}
+
+	/**
+	 * @param orders
+	 * @return the key of an order list, with the case sensitivity the toString() leaves out
+	 */
+	static String of(Iterable<Order> orders) {
+		StringBuilder key = new StringBuilder("[");
+		for (final Order order : orders) {
+			key.append(order).append(order.isIgnoreCase() ? " ic," : ",");
+		}
+		return key.append(']').toString();
+	}
+
+	private static boolean append(StringBuilder key, Criterion criterion) {
+		try {
+			Class<?> type = criterion.getClass();
+			if (type == SimpleExpression.class) {
+				key.append("simple(");
+				name(key, field(criterion, SimpleExpression.class, "propertyName"));
+				name(key, field(criterion, SimpleExpression.class, "op"));
+				key.append(field(criterion, SimpleExpression.class, "ignoreCase"));
+				return value(key, field(criterion, SimpleExpression.class, "value")) && close(key);
+			}
+			if (type == LikeExpression.class) {
+				key.append("like(");
+				name(key, field(criterion, LikeExpression.class, "propertyName"));
+				key.append(field(criterion, LikeExpression.class, "ignoreCase"));
+				return value(key, field(criterion, LikeExpression.class, "escapeChar"))
+						&& value(key, field(criterion, LikeExpression.class, "value")) && close(key);
+			}
+			if (type.getName().equals(ILIKE)) {
+				key.append("ilike(");
+				name(key, field(criterion, type, "propertyName"));
+				return value(key, field(criterion, type, "value")) && close(key);
+			}
+			if (type == BetweenExpression.class) {
+				key.append("between(");
+				name(key, field(criterion, BetweenExpression.class, "propertyName"));
+				return value(key, field(criterion, BetweenExpression.class, "lo"))
+						&& value(key, field(criterion, BetweenExpression.class, "hi")) && close(key);
+			}
+			if (type == InExpression.class) {
+				key.append("in(");
+				name(key, field(criterion, InExpression.class, "propertyName"));
+				for (final Object value : (Object[]) field(criterion, InExpression.class, "values")) {
+					if (!value(key, value)) {
+						return false;
+					}
+				}
+				return close(key);
+			}
+			if (type == NullExpression.class) {
+				key.append("null(");
+				name(key, field(criterion, NullExpression.class, "propertyName"));
+				return close(key);
+			}
+			if (type == NotNullExpression.class) {
+				key.append("notnull(");
+				name(key, field(criterion, NotNullExpression.class, "propertyName"));
+				return close(key);
+			}
+			if (type == PropertyExpression.class) {
+				key.append("property(");
+				name(key, field(criterion, PropertyExpression.class, "propertyName"));
+				name(key, ((PropertyExpression) criterion).getOp());
+				name(key, field(criterion, PropertyExpression.class, "otherPropertyName"));
+				return close(key);
+			}
+			if (type == IdentifierEqExpression.class) {
+				key.append("id(");
+				return value(key, field(criterion, IdentifierEqExpression.class, "value")) && close(key);
+			}
+			if (type == NotExpression.class) {
+				key.append("not(");
+				return append(key, (Criterion) field(criterion, NotExpression.class, "criterion")) && close(key);
+			}
+			if (type == LogicalExpression.class) {
+				key.append("logical(");
+				name(key, ((LogicalExpression) criterion).getOp());
+				return append(key, (Criterion) field(criterion, LogicalExpression.class, "lhs"))
+						&& append(key, (Criterion) field(criterion, LogicalExpression.class, "rhs")) && close(key);
+			}
+			if (criterion instanceof Junction && type.getPackage() == Junction.class.getPackage()) {
+				// Conjunction or Disjunction
+				Junction junction = (Junction) criterion;
+				key.append(junction.getNature()).append('(');
+				for (final Criterion condition : junction.conditions()) {
+					if (!append(key, condition)) {
+						return false;
+					}
+				}
+				return close(key);
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			log.debug("No result cache key for " + criterion.getClass().getName(), e);
+		}
+		return false;
+	}
+
+	private static boolean close(StringBuilder key) {
+		key.append(')');
+		return true;
+	}
+
+	/**
+	 * Length-prefixed, so no name or string can pass for another
+	 */
+	private static void name(StringBuilder key, Object name) {
+		String text = String.valueOf(name);
+		key.append(text.length()).append(':').append(text).append(',');
+	}
+
+	/**
+	 * @return false if the value is not of a type with a value key
+	 */
+	private static boolean value(StringBuilder key, Object value) {
+		if (value == null) {
+			key.append("null,");
+		} else if (value instanceof Timestamp) {
+			key.append("ts").append(((Timestamp) value).getTime()).append('.').append(((Timestamp) value).getNanos()).append(',');
+		} else if (value instanceof Date) {
+			key.append(value.getClass() == Date.class ? "date" : value.getClass().getName())
+					.append(((Date) value).getTime()).append(',');
+		} else if (value instanceof Calendar) {
+			key.append("cal").append(((Calendar) value).getTimeInMillis()).append('@');
+			name(key, ((Calendar) value).getTimeZone().getID());
+		} else if (value instanceof String || value instanceof Character) {
+			key.append(value instanceof String ? 's' : 'c');
+			name(key, value);
+		} else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte
+				|| value instanceof Double || value instanceof Float || value instanceof BigDecimal
+				|| value instanceof BigInteger || value instanceof Boolean) {
+			key.append(value.getClass().getSimpleName()).append(value).append(',');
+		} else if (value instanceof Enum) {
+			key.append(((Enum<?>) value).getDeclaringClass().getName()).append('.');
+			name(key, ((Enum<?>) value).name());
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	private static Object field(Object target, Class<?> type, String name) throws ReflectiveOperationException {
+		String key = type.getName() + "." + name;
+		Field field = fields.get(key);
+		if (field == null) {
+			field = type.getDeclaredField(name);
+			field.setAccessible(true);
+			fields.putIfAbsent(key, field);
+		}
+		return field.get(target);
+	}
+}
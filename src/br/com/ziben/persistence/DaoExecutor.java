@@ -0,0 +1,265 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import br.com.ziben.persistence.pool.PoolMetrics;
+
+/**
+ * Runs the DAO calls of {@link AsyncDAO} off the caller thread. At most
+ * maxConcurrency calls run at once, so the connection pool is not oversubscribed,
+ * and at most queueSize more wait for their turn: beyond that a call fails at once
+ * with RejectedExecutionException.<br>
+ * On JDK 21+ each call runs on a virtual thread, parked while it waits for a
+ * permit; before that on a fixed pool of maxConcurrency platform threads.<br>
+ * Each call uses its own DAO and session, opened and closed on the thread running
+ * it, so nothing is kept on ThreadLocals nor shared between calls.
+ * @author ccardozo
+ *
+ */
+public final class DaoExecutor {
+
+	private static final Logger log = Logger.getLogger(DaoExecutor.class);
+
+	public static final String PREFIX = "persistence.async.";
+	/** calls running at once; default the maximum size of the pool */
+	public static final String MAX_CONCURRENCY = PREFIX + "max_concurrency";
+	/** calls waiting for a permit before new ones are rejected */
+	public static final String QUEUE_SIZE = PREFIX + "queue_size";
+	/** false to use platform threads even where virtual threads are available */
+	public static final String VIRTUAL_THREADS = PREFIX + "virtual_threads";
+
+	static final int DEFAULT_CONCURRENCY = 10;
+	static final int DEFAULT_QUEUE_SIZE = 1000;
+
+	private static final ConcurrentMap<String, DaoExecutor> executors = new ConcurrentHashMap<String, DaoExecutor>();
+
+	private final String name;
+	private final int maxConcurrency;
+	private final int queueSize;
+	private final boolean virtualThreads;
+	private final ExecutorService threads;
+	// taken on submit: running plus waiting calls
+	private final Semaphore admitted;
+	// taken by the thread running the call
+	private final Semaphore running;
+
+	/**
+	 * @param name of the threads
+	 * @param maxConcurrency calls running at once
+	 * @param queueSize calls waiting
+	 * @param useVirtualThreads virtual threads, if the JDK has them
+	 */
+	public DaoExecutor(String name, int maxConcurrency, int queueSize, boolean useVirtualThreads) {
+		if (maxConcurrency < 1 || queueSize < 0) {
+			throw new IllegalArgumentException("maxConcurrency must be positive and queueSize not negative");
+		}
+		this.name = name;
+		this.maxConcurrency = maxConcurrency;
+		this.queueSize = queueSize;
+		this.admitted = new Semaphore(maxConcurrency + queueSize);
+		this.running = new Semaphore(maxConcurrency, true);
+		ExecutorService virtual = useVirtualThreads ? newVirtualThreadPerTaskExecutor() : null;
+		this.virtualThreads = virtual != null;
+		this.threads = virtual != null ? virtual : newPlatformExecutor(name, maxConcurrency);
+		log.info("DaoExecutor " + name + ": " + maxConcurrency + " calls at once, " + queueSize + " waiting, "
+				+ (virtualThreads ? "virtual" : "platform") + " threads");
+	}
+
+	/**
+	 * The executor of a factory, created on the first call: sized by the persistence.async.*
+	 * properties of the factory or, if not set, by the maximum size of its pool
+	 * @param factoryName
+	 * @return the shared executor
+	 * @throws DataAccessLayerException if the factory can not be built
+	 */
+	public static DaoExecutor forFactory(String factoryName) {
+		String key = factoryName == null ? HibernateFactory.DEFAULT : factoryName;
+		DaoExecutor executor = executors.get(key);
+		if (executor == null) {
+			// built before taking the monitor, that must not be held while blocked on I/O
+			HibernateFactory.buildIfNeeded(key);
+			synchronized (executors) {
+				executor = executors.get(key);
+				if (executor == null) {
+					executor = create(key);
+					executors.put(key, executor);
+				}
+			}
+		}
+		return executor;
+	}
+
+	private static DaoExecutor create(String factoryName) {
+		SessionFactoryImplementor factory = (SessionFactoryImplementor) HibernateFactory.buildIfNeeded(factoryName);
+		PoolMetrics pool = HibernateFactory.getPoolMetrics(factoryName);
+		int poolSize = pool == null ? DEFAULT_CONCURRENCY : pool.getMaxSize();
+		String concurrency = factory.getProperties().getProperty(MAX_CONCURRENCY);
+		String queue = factory.getProperties().getProperty(QUEUE_SIZE);
+		String virtual = factory.getProperties().getProperty(VIRTUAL_THREADS);
+		return new DaoExecutor("sensus-async-" + factoryName,
+				concurrency == null ? poolSize : Integer.parseInt(concurrency.trim()),
+				queue == null ? DEFAULT_QUEUE_SIZE : Integer.parseInt(queue.trim()),
+				virtual == null || Boolean.parseBoolean(virtual.trim()));
+	}
+
+	/**
+	 * Shut down the executor of a factory; the next forFactory creates another
+	 * @param factoryName
+	 */
+	public static void shutdown(String factoryName) {
+		DaoExecutor executor = executors.remove(factoryName == null ? HibernateFactory.DEFAULT : factoryName);
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Run a call when a permit is free
+	 * @param call
+	 * @return its result, or the exception it threw
+	 */
+	public <R> CompletableFuture<R> submit(final Supplier<R> call) {
+		final CompletableFuture<R> future = new CompletableFuture<R>();
+		if (!admitted.tryAcquire()) {
+			future.completeExceptionally(new RejectedExecutionException("DaoExecutor " + name + " full: " + maxConcurrency
+					+ " calls running and " + queueSize + " waiting"));
+			return future;
+		}
+		try {
+			threads.execute(() -> {
+				try {
+					running.acquire();
+					try {
+						future.complete(call.get());
+					} finally {
+						running.release();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					future.completeExceptionally(e);
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				} finally {
+					admitted.release();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			admitted.release();
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Run a unit of work on a transaction of its own: the SessionDAOCtrl is begun
+	 * before, committed after (rolled back if it throws) and its session closed
+	 * @param work builds its DAOs over the controller
+	 * @return the result of the work
+	 */
+	public <R> CompletableFuture<R> inTransaction(final String factoryName, final Function<? super SessionDAOCtrl, ? extends R> work) {
+		return submit(() -> {
+			SessionDAOCtrl ctrl = new SessionDAOCtrl(factoryName);
+			try {
+				ctrl.beginTransaction();
+				R result = work.apply(ctrl);
+				ctrl.commitTransaction();
+				return result;
+			} catch (RuntimeException e) {
+				if (ctrl.getSession().isOpen()) {
+					ctrl.rollbackTransaction();
+				}
+				throw e;
+			} finally {
+				if (ctrl.getSession().isOpen()) {
+					HibernateFactory.close(ctrl.getSession());
+				}
+			}
+		});
+	}
+
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	/** @return calls running */
+	public int getActive() {
+		return maxConcurrency - running.availablePermits();
+	}
+
+	/** @return calls submitted, running or waiting */
+	public int getPending() {
+		return maxConcurrency + queueSize - admitted.availablePermits();
+	}
+
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Stop taking calls; the submitted ones still run
+	 */
+	public void shutdown() {
+		threads.shutdown();
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return threads.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * Executors.newVirtualThreadPerTaskExecutor(), by reflection as the library is built for Java 8
+	 * @return the executor, or null before JDK 21
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (ReflectiveOperationException e) {
+			log.warn("Virtual threads not available, using platform threads", e);
+			return null;
+		}
+	}
+
+	private static ExecutorService newPlatformExecutor(final String name, int size) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+}
@@ -0,0 +1,219 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.io.Serializable;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.IdentifierValue;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * What a DAO needs to know about its entity, computed once per entity and
+ * factory and shared by all the DAO instances: the entity name, the identifier
+ * and the HQL of the whole-table operations, whose plans are compiled into the
+ * query plan cache of the factory when the metadata is built.<br>
+ * Rebuilt when its factory is rebuilt.
+ * @author ccardozo
+ *
+ */
+public final class EntityMetadata {
+
+	private static final Logger log = Logger.getLogger(EntityMetadata.class);
+
+	// DAO class -> its T
+	private static final ConcurrentMap<Class<?>, Class<?>> entityTypes = new ConcurrentHashMap<Class<?>, Class<?>>();
+	// factory:entity -> metadata
+	private static final ConcurrentMap<String, EntityMetadata> registry = new ConcurrentHashMap<String, EntityMetadata>();
+
+	private final SessionFactory sessionFactory;
+	private final Class<?> entityClass;
+	private final ClassMetadata classMetadata;
+	private final String entityName;
+	private final String identifierName;
+	private final String selectAllHql;
+	private final String deleteAllHql;
+
+	private EntityMetadata(SessionFactory sessionFactory, Class<?> entityClass) {
+		this.sessionFactory = sessionFactory;
+		this.entityClass = entityClass;
+		this.classMetadata = sessionFactory.getClassMetadata(entityClass);
+		this.entityName = classMetadata == null ? entityClass.getName() : classMetadata.getEntityName();
+		this.identifierName = classMetadata == null ? null : classMetadata.getIdentifierPropertyName();
+		this.selectAllHql = "from " + entityName;
+		this.deleteAllHql = "delete from " + entityName;
+	}
+
+	/**
+	 * The entity of a DAO, the T of the GenericSessionDAO&lt;T&gt; it extends
+	 * @param daoClass
+	 * @return
+	 */
+	static Class<?> entityType(Class<?> daoClass) {
+		Class<?> entity = entityTypes.get(daoClass);
+		if (entity == null) {
+			entity = resolveEntityType(daoClass);
+			entityTypes.putIfAbsent(daoClass, entity);
+		}
+		return entity;
+	}
+
+	private static Class<?> resolveEntityType(Class<?> daoClass) {
+		for (Class<?> c = daoClass; c != null && c != Object.class; c = c.getSuperclass()) {
+			Type type = c.getGenericSuperclass();
+			if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() == GenericSessionDAO.class) {
+				Type argument = ((ParameterizedType) type).getActualTypeArguments()[0];
+				if (argument instanceof Class) {
+					return (Class<?>) argument;
+				}
+				if (argument instanceof ParameterizedType) {
+					return (Class<?>) ((ParameterizedType) argument).getRawType();
+				}
+				break;
+			}
+		}
+		throw new DataAccessLayerException("Impossible to resolve the entity of " + daoClass.getName()
+				+ ": it must extend GenericSessionDAO<T> with a concrete T");
+	}
+
+	/**
+	 * The metadata of an entity on a factory, building the factory if needed
+	 * @param factoryName
+	 * @param entityClass
+	 * @return
+	 * @throws DataAccessLayerException
+	 */
+	static EntityMetadata forEntity(String factoryName, Class<?> entityClass) throws DataAccessLayerException {
+		SessionFactory factory = HibernateFactory.buildIfNeeded(factoryName);
+		String key = factoryName + ":" + entityClass.getName();
+		EntityMetadata metadata = registry.get(key);
+		if (metadata == null || metadata.sessionFactory != factory) {
+			metadata = new EntityMetadata(factory, entityClass);
+			metadata.warmUp();
+			registry.put(key, metadata);
+		}
+		return metadata;
+	}
+
+	/**
+	 * Parse the HQL once, so the first call does not pay for it
+	 */
+	private void warmUp() {
+		if (classMetadata == null) {
+			log.debug(entityClass.getName() + " is not mapped, no query plan to compile");
+			return;
+		}
+		try {
+			for (final String hql : new String[] { selectAllHql, deleteAllHql }) {
+				((SessionFactoryImplementor) sessionFactory).getQueryPlanCache().getHQLQueryPlan(hql, false,
+						Collections.emptyMap());
+			}
+		} catch (HibernateException e) {
+			log.warn("Impossible to compile the queries of " + entityName, e);
+		}
+	}
+
+	public Class<?> getEntityClass() {
+		return entityClass;
+	}
+
+	public String getEntityName() {
+		return entityName;
+	}
+
+	/**
+	 * @return the mapping of the entity, null if not mapped
+	 */
+	public ClassMetadata getClassMetadata() {
+		return classMetadata;
+	}
+
+	/**
+	 * @return the identifier property, null if none (or not mapped)
+	 */
+	public String getIdentifierName() {
+		return identifierName;
+	}
+
+	/**
+	 * @param entity
+	 * @param session
+	 * @return the identifier of an instance of the entity
+	 */
+	public Serializable getIdentifier(Object entity, Session session) {
+		if (classMetadata == null) {
+			throw new DataAccessLayerException(entityClass.getName() + " is not mapped");
+		}
+		return classMetadata.getIdentifier(entity, (SessionImplementor) session);
+	}
+
+	/**
+	 * @param entity
+	 * @return the identifier of an instance, or null while it has the unsaved value of
+	 *         its mapping (null, or 0 for a primitive generated id)
+	 */
+	public Serializable getSavedIdentifier(Object entity) {
+		EntityPersister persister = persister();
+		Serializable id = persister.getIdentifier(entity, (SessionImplementor) null);
+		IdentifierValue unsaved = persister.getEntityMetamodel().getIdentifierProperty().getUnsavedValue();
+		// null (undefined) for the assigned identifiers: they are always kept
+		return id == null || Boolean.TRUE.equals(unsaved.isUnsaved(id)) ? null : id;
+	}
+
+	/**
+	 * Give an instance back the unsaved values of its generated identifier and version,
+	 * after an insert rolled back; an assigned identifier is kept
+	 * @param entity
+	 */
+	public void resetIdentifier(Object entity) {
+		EntityPersister persister = persister();
+		persister.resetIdentifier(entity, persister.getIdentifier(entity, (SessionImplementor) null),
+				persister.getVersion(entity), null);
+	}
+
+	private EntityPersister persister() {
+		if (classMetadata == null) {
+			throw new DataAccessLayerException(entityClass.getName() + " is not mapped");
+		}
+		return (EntityPersister) classMetadata;
+	}
+
+	/**
+	 * @return "from Entity"
+	 */
+	public String getSelectAllHql() {
+		return selectAllHql;
+	}
+
+	/**
+	 * @return "delete from Entity"
+	 */
+	public String getDeleteAllHql() {
+		return deleteAllHql;
+	}
+}
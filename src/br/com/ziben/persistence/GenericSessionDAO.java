@@ -17,23 +17,73 @@ along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
 package br.com.ziben.persistence;
 
 import java.io.Serializable;
-import java.lang.reflect.ParameterizedType;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.log4j.Logger;
 import org.hibernate.Criteria;
+import org.hibernate.FlushMode;
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
+import org.hibernate.cache.spi.CacheKey;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.criterion.Conjunction;
 import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Disjunction;
 import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.ProjectionList;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.Oracle8iDialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.dialect.SQLServer2005Dialect;
+import org.hibernate.engine.internal.ForeignKeys;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.StandardBasicTypes;
+import org.hibernate.type.Type;
+
+import br.com.ziben.persistence.cache.CacheStatistics;
+import br.com.ziben.persistence.metrics.DaoMetrics;
+import br.com.ziben.persistence.pool.PoolMetrics;
+import br.com.ziben.persistence.pool.PooledConnectionProvider;
 
 /**
  * Class to handle DAOs by a generic hibernate session factoring
@@ -44,33 +94,80 @@ import org.hibernate.criterion.Restrictions;
 @SuppressWarnings("unchecked")
 public abstract class GenericSessionDAO<T> {
 	
-	private Logger log = Logger.getLogger(GenericSessionDAO.class);
+	private static final Logger log = Logger.getLogger(GenericSessionDAO.class);
 	
     private Session session;
     private Transaction tx;
 	private Class<T> inClass;
+	private EntityMetadata metadata;
 	private ArrayList<Criterion> criterionList = new ArrayList<Criterion>();
 	private List<Order> orderList = new ArrayList<Order>();
 	private ProjectionList projectionList = Projections.projectionList();
 	
 	private boolean executingTransaction = false;
 	private SessionDAOCtrl sessionDAOCtrl = null;
+	private String factoryName = HibernateFactory.DEFAULT;
+	
+	/** chunk size used by the bulk writes when hibernate.jdbc.batch_size is not set */
+	public static final int DEFAULT_BATCH_SIZE = 50;
+	private int batchSize = 0;
+	
+	/** rows committed at a time by the stateless ingestion */
+	public static final int DEFAULT_COMMIT_INTERVAL = 10000;
+	private int ingestBatchSize = 0;
+	private int ingestCommitInterval = DEFAULT_COMMIT_INTERVAL;
+	
+	/** keys on each IN list of findByIds(), lowered to the limit of the dialect */
+	public static final int DEFAULT_IN_LIST_SIZE = 1000;
+
+	/** JDBC fetch size of the streams when hibernate.jdbc.fetch_size is not set */
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	private Integer fetchSize = null;
+
+	/** partitions of a parallelScan() per worker, so that the short ones do not leave workers idle */
+	public static final int SCAN_PARTITIONS_PER_WORKER = 4;
+
+	/** results of the criteria queries, null unless enabled */
+	private ResultCache resultCache = null;
+
+	/**
+	 * true/false to set the connections of the read-only reads read-only; default true with the
+	 * PooledConnectionProvider, which resets it when the connection goes back to the pool
+	 */
+	public static final String READ_ONLY_CONNECTIONS = "persistence.read_only_connections";
+	/**
+	 * true/false to count the rows of listPage() with COUNT(*) OVER(); default true on
+	 * Oracle, PostgreSQL and SQL Server
+	 */
+	public static final String WINDOW_COUNT = "persistence.page.window_count";
+	/** reads outside a SessionDAOCtrl transaction on read-only sessions */
+	private boolean readOnly = true;
 
 	/**
 	 * Get the class that extends me, well...
 	 */
 	public GenericSessionDAO() {
-		this.inClass = (Class<T>) ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0];
-        HibernateFactory.buildIfNeeded();
+		this(HibernateFactory.DEFAULT);
+    }
+
+	/**
+	 * DAO bound to a named factory (see {@link HibernateFactory}), with its own pool
+	 * @param factoryName
+	 */
+	public GenericSessionDAO(String factoryName) {
+		this.factoryName = factoryName;
+		this.inClass = (Class<T>) EntityMetadata.entityType(getClass());
+		this.metadata = EntityMetadata.forEntity(factoryName, inClass);
     }
 	
 	public GenericSessionDAO(SessionDAOCtrl sessionParam) {
 		this.sessionDAOCtrl = sessionParam;
+		this.factoryName = sessionParam.getFactoryName();
 		// TODO: quando for SessionDAOCtrl preencho????
 		this.session= sessionParam.getSession();
 		this.tx = sessionParam.getSession().getTransaction();
-		this.inClass = (Class<T>) ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0];
-        HibernateFactory.buildIfNeeded();
+		this.inClass = (Class<T>) EntityMetadata.entityType(getClass());
+		this.metadata = EntityMetadata.forEntity(factoryName, inClass);
     }
 
 	/**
@@ -78,25 +175,34 @@ public abstract class GenericSessionDAO<T> {
 	 * @param obj
 	 */
     protected void persist(T obj) {
-        log.debug(">> GenericSessionDAO.persist(): " + this.inClass.toString());
+        final long started = DaoMetrics.start();
+        boolean inserted = false;
         try {
         	if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
         		log.debug("Session object");
 	            startOperation();
+	            inserted = isCounted() && isTransient(session, obj);
 	            session.saveOrUpdate(obj);
 	            tx.commit();
         	} else {
         		log.debug("Session sessionDAOCtrl");
+        		inserted = isCounted() && isTransient(sessionDAOCtrl.getSession(), obj);
         		sessionDAOCtrl.getSession().saveOrUpdate(obj);
         	}
+        	written();
+        	counted(inserted ? 1 : 0);
         } catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "persist", started);
             handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "persist", started);
+            throw e;
         } finally {
         	if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
         		HibernateFactory.close(session);
         	}
-            log.debug("<< GenericSessionDAO.persist(): " + this.inClass.toString());
         }
+        DaoMetrics.success(this.inClass, "persist", started, 1);
     }
     
 	/**
@@ -104,7 +210,7 @@ public abstract class GenericSessionDAO<T> {
 	 * @param obj
 	 */
     protected void save(T obj) {
-        log.debug(">> GenericSessionDAO.save(): " + this.inClass.toString());
+        final long started = DaoMetrics.start();
         try {
         	if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
         		log.debug("Session object");
@@ -115,14 +221,20 @@ public abstract class GenericSessionDAO<T> {
         		log.debug("Session sessionDAOCtrl");
         		sessionDAOCtrl.getSession().save(obj);        		
         	}
+        	written();
+        	counted(1);
         } catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "save", started);
             handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "save", started);
+            throw e;
         } finally {
         	if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
         		HibernateFactory.close(this.session);
         	}
-            log.debug("<< GenericSessionDAO.save(): " + this.inClass.toString());
         }
+        DaoMetrics.success(this.inClass, "save", started, 1);
     }
     
 	/**
@@ -130,7 +242,7 @@ public abstract class GenericSessionDAO<T> {
 	 * @param obj
 	 */
     protected void update(T obj) {
-        log.debug(">> GenericSessionDAO.update(): " + this.inClass.toString());
+        final long started = DaoMetrics.start();
         try {
         	if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
         		log.debug("Session object");
@@ -141,14 +253,19 @@ public abstract class GenericSessionDAO<T> {
         		log.debug("Session sessionDAOCtrl");
         		sessionDAOCtrl.getSession().update(obj);
         	}
+        	written();
         } catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "update", started);
             handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "update", started);
+            throw e;
         } finally {
         	if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
         		HibernateFactory.close(session);
         	}
-            log.debug("<< GenericSessionDAO.update(): " + this.inClass.toString());
         }
+        DaoMetrics.success(this.inClass, "update", started, 1);
     }
 
     /**
@@ -156,7 +273,7 @@ public abstract class GenericSessionDAO<T> {
      * @param obj
      */
     protected void delete(T obj) {
-        log.debug(">> GenericSessionDAO.delete(): " + this.inClass.toString());
+        final long started = DaoMetrics.start();
         try {
         	if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
         		log.debug("Session object");
@@ -167,15 +284,21 @@ public abstract class GenericSessionDAO<T> {
         		log.debug("Session sessionDAOCtrl");
         		sessionDAOCtrl.getSession().delete(obj);
         	}
+        	written();
+        	counted(-1);
         } catch (HibernateException e) {
 //        	tx.rollback(); // Já tratado no handleException()
+            DaoMetrics.failure(this.inClass, "delete", started);
             handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "delete", started);
+            throw e;
         } finally {
         	if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
         		HibernateFactory.close(session);
         	}
-            log.debug("<< GenericSessionDAO.delete(): " + this.inClass.toString());
         }
+        DaoMetrics.success(this.inClass, "delete", started, 1);
     }
 
     /**
@@ -183,62 +306,665 @@ public abstract class GenericSessionDAO<T> {
      * @param obj
      */
     protected void clean() {
-        log.debug(">> GenericSessionDAO.clean(): " + this.inClass.toString());
+    	clean(false);
+    }
+
+    /**
+     * Clean a Table represented by T class; fast, with TRUNCATE TABLE when the dialect has it
+     * (MySQL, Oracle, PostgreSQL, SQL Server), the table holds only this entity and no foreign
+     * key points to it: nothing is logged per row, and the second-level cache regions of the
+     * entity and of its collections are evicted. Under a SessionDAOCtrl transaction (a TRUNCATE
+     * commits on MySQL and Oracle), when not allowed or if the TRUNCATE fails, it is a HQL delete.
+     * @param fast try the TRUNCATE
+     */
+    protected void clean(boolean fast) {
+    	if (fast && (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()) && truncate()) {
+    		return;
+    	}
+        final long started = DaoMetrics.start();
+        int deleted = 0;
         try {
         	Query query = null;
-        	String hql = String.format("delete from %s", this.inClass.getName());
+        	String hql = metadata.getDeleteAllHql();
         	if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
         		log.debug("Session object");
 	            startOperation();
 	            query = session.createQuery(hql); 
-	            query.executeUpdate();
+	            deleted = query.executeUpdate();
 	            tx.commit();
         	} else {
         		log.debug("Session sessionDAOCtrl");
 	            query = sessionDAOCtrl.getSession().createQuery(hql); 
-	            query.executeUpdate();
+	            deleted = query.executeUpdate();
         	}
+        	written();
+        	countReset();
         } catch (HibernateException e) {
 //        	tx.rollback();
+            DaoMetrics.failure(this.inClass, "clean", started);
             handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "clean", started);
+            throw e;
         } finally {
         	if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
         		HibernateFactory.close(session);
         	}
-            log.debug("<< GenericSessionDAO.clean(): " + this.inClass.toString());
         }
+        DaoMetrics.success(this.inClass, "clean", started, deleted);
     }
     
+    /**
+     * Empty the table with TRUNCATE, on a transaction of its own
+     * @return false if not allowed or failed, to be deleted instead
+     */
+    private boolean truncate() {
+        final long started = DaoMetrics.start();
+        try {
+        	startOperation();
+        	SessionFactoryImplementor factory = (SessionFactoryImplementor) session.getSessionFactory();
+        	String statement = TableTruncation.statement(session, factory.getEntityPersister(metadata.getEntityName()));
+        	if (statement == null) {
+        		HibernateFactory.rollback(tx);
+        		return false;
+        	}
+        	// only the regions of the entity are invalidated, not all of them
+        	session.createSQLQuery(statement).addSynchronizedEntityClass(this.inClass).executeUpdate();
+        	tx.commit();
+        	factory.getCache().evictEntityRegion(this.inClass);
+        	for (final Object role : factory.getAllCollectionMetadata().keySet()) {
+        		if (((String) role).startsWith(metadata.getEntityName() + ".")) {
+        			factory.getCache().evictCollectionRegion((String) role);
+        		}
+        	}
+        	written();
+        	countReset();
+        } catch (HibernateException e) {
+        	log.warn("GenericSessionDAO.clean(): TRUNCATE of " + metadata.getEntityName() + " failed, deleting instead: " + e);
+        	HibernateFactory.rollback(tx);
+        	return false;
+        } finally {
+        	HibernateFactory.close(session);
+        }
+        DaoMetrics.success(this.inClass, "clean", started, -1);
+        return true;
+    }
+
+    /**
+     * Delete the rows matching the criterion list with bulk DELETE statements, without
+     * loading them. The keys of the rows are read in ascending order, a chunk at a time,
+     * and each chunk is deleted by key with IN lists of up to {@value #DEFAULT_IN_LIST_SIZE}
+     * keys (or the limit of the dialect), several statements for a bigger chunk; with
+     * chunkSize positive each chunk commits on its own, so a purge does not hold its locks
+     * nor its undo to the end. Under a SessionDAOCtrl transaction nothing is committed here.<br>
+     * Cascades and the entity listeners are bypassed; the second-level cache region of the
+     * entity is cleared by Hibernate.
+     * @param chunkSize rows per transaction, 0 for a single transaction
+     * @return the rows deleted on each chunk (a single one without chunkSize)
+     * @throws BatchException with the chunks committed before the failure; without chunkSize
+     * or under a SessionDAOCtrl transaction none is, and the chunks run are reported rolled back
+     */
+    protected BatchResult deleteByCriteria(int chunkSize) {
+    	return bulkByCriteria("deleteByCriteria", "delete from " + metadata.getEntityName(), null, chunkSize);
+    }
+
+    /**
+     * Set properties of the rows matching the criterion list with bulk UPDATE statements,
+     * chunked as in {@link #deleteByCriteria(int)}; the version of versioned entities is
+     * not incremented
+     * @param values new value of each property
+     * @param chunkSize rows per transaction, 0 for a single transaction
+     * @return the rows updated on each chunk (a single one without chunkSize)
+     * @throws BatchException with the chunks committed before the failure; without chunkSize
+     * or under a SessionDAOCtrl transaction none is, and the chunks run are reported rolled back
+     */
+    protected BatchResult updateByCriteria(Map<String, ?> values, int chunkSize) {
+    	if (values == null || values.isEmpty()) {
+    		throw new IllegalArgumentException("No property to update");
+    	}
+    	StringBuilder hql = new StringBuilder("update ").append(metadata.getEntityName()).append(" set ");
+    	int index = 0;
+    	for (final String property : values.keySet()) {
+    		hql.append(index == 0 ? "" : ", ").append(property).append(" = :v").append(index++);
+    	}
+    	return bulkByCriteria("updateByCriteria", hql.toString(), values, chunkSize);
+    }
+
+    /**
+     * Run the bulk statement on the keys of the rows matching the criterion list, a
+     * keyset chunk of keys at a time
+     */
+    private BatchResult bulkByCriteria(String operation, String statement, Map<String, ?> values, int chunkSize) {
+        final long started = DaoMetrics.start();
+        final String idName = metadata.getIdentifierName();
+        if (idName == null) {
+        	throw new DataAccessLayerException(operation + " needs an identifier property on " + this.inClass.getName());
+        }
+        final String hql = statement + " where " + idName + " in (:ids)";
+        final boolean standalone = sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction();
+        final boolean deleting = values == null;
+        BatchResult result = new BatchResult();
+        // rows of the chunks run but not committed yet
+        List<Integer> pending = new ArrayList<Integer>();
+        try {
+        	Session current = null;
+        	if (standalone) {
+        		startOperation();
+        		current = session;
+        	} else {
+        		current = sessionDAOCtrl.getSession();
+        		// the statements go straight to the database
+        		current.flush();
+        	}
+        	final int inListSize = inListSize(((SessionImplementor) current).getFactory().getDialect());
+        	final ClassMetadata classMetadata = metadata.getClassMetadata();
+        	Object last = null;
+        	int chunkKeys = 0;
+        	int chunkRows = 0;
+        	while (true) {
+        		// a chunk bigger than the IN list limit of the dialect takes several statements
+        		final int keys = chunkSize > 0 ? Math.min(inListSize, chunkSize - chunkKeys) : inListSize;
+        		Criteria criteria = current.createCriteria(this.inClass).setProjection(Projections.id());
+        		for (final Criterion c : criterionList) {
+        			criteria.add(c);
+        		}
+        		if (last != null) {
+        			criteria.add(Restrictions.gt(idName, last));
+        		}
+        		List<Object> ids = criteria.addOrder(Order.asc(idName)).setMaxResults(keys).list();
+        		if (ids.isEmpty()) {
+        			break;
+        		}
+        		Query query = current.createQuery(hql).setParameterList("ids", ids);
+        		if (values != null) {
+        			int index = 0;
+        			for (final Map.Entry<String, ?> value : values.entrySet()) {
+        				query.setParameter("v" + index++, value.getValue(), classMetadata.getPropertyType(value.getKey()));
+        			}
+        		}
+        		chunkRows += query.executeUpdate();
+        		chunkKeys += ids.size();
+        		last = ids.get(ids.size() - 1);
+        		if (chunkKeys == chunkSize) {
+        			endChunk(current, chunkRows, standalone && chunkSize > 0, deleting, result, pending);
+        			chunkKeys = 0;
+        			chunkRows = 0;
+        		}
+        		if (ids.size() < keys) {
+        			break;
+        		}
+        	}
+        	if (chunkKeys > 0) {
+        		endChunk(current, chunkRows, standalone && chunkSize > 0, deleting, result, pending);
+        	}
+        	if (standalone) {
+        		tx.commit();
+        	}
+        	long uncounted = 0;
+        	for (final Integer rows : pending) {
+        		result.addChunk(rows);
+        		uncounted += rows;
+        	}
+        	counted(deleting ? -uncounted : 0);
+        } catch (HibernateException e) {
+        	result.fail(e, pending);
+        	log.error("GenericSessionDAO." + operation + "() failed: " + result, e);
+        	DaoMetrics.failure(this.inClass, operation, started);
+            HibernateFactory.rollback(tx);
+            executingTransaction = false;
+            throw new BatchException(result, e);
+        } catch (RuntimeException e) {
+        	DaoMetrics.failure(this.inClass, operation, started);
+        	throw e;
+        } finally {
+        	if (standalone) {
+        		HibernateFactory.close(session);
+        	}
+        	if (result.getChunkCount() > 0) {
+        		written();
+        	}
+        }
+        DaoMetrics.success(this.inClass, operation, started, result.getTotalRows());
+        return result;
+    }
+
+    /**
+     * End a chunk of a bulk statement: committed at once when chunked standalone,
+     * otherwise pending until the end of the whole run (or of the SessionDAOCtrl transaction)
+     */
+    private void endChunk(Session current, int rows, boolean commit, boolean deleting, BatchResult result,
+    		List<Integer> pending) {
+    	if (commit) {
+    		tx.commit();
+    		tx = current.beginTransaction();
+    		result.addChunk(rows);
+    		counted(deleting ? -rows : 0);
+    	} else {
+    		pending.add(rows);
+    	}
+    }
+
+    /**
+     * Save or update a collection of records in one session and one transaction,
+     * flushing and clearing the session at each chunk of {@link #getBatchSize()} rows
+     * @param objs
+     * @return the rows written on each chunk
+     * @throws BatchException if some chunk fails, with the chunks flushed before it as
+     * rolled back (standalone there is one transaction; under a SessionDAOCtrl transaction
+     * the controller has to roll back)
+     */
+    protected BatchResult persistAll(Collection<? extends T> objs) {
+    	if (!isCounted()) {
+    		return writeAll("persistAll", objs, Session::saveOrUpdate);
+    	}
+    	final long[] inserted = { 0 };
+    	BatchResult result = writeAll("persistAll", objs, (current, obj) -> {
+    		if (isTransient(current, obj)) {
+    			inserted[0]++;
+    		}
+    		current.saveOrUpdate(obj);
+    	});
+    	counted(inserted[0]);
+    	return result;
+    }
+
+    /**
+     * Save a collection of records in chunks; see {@link #persistAll(Collection)}
+     * @param objs
+     * @return the rows written on each chunk
+     */
+    protected BatchResult saveAll(Collection<? extends T> objs) {
+    	BatchResult result = writeAll("saveAll", objs, Session::save);
+    	counted(result.getTotalRows());
+    	return result;
+    }
+
+    /**
+     * Update a collection of records in chunks; see {@link #persistAll(Collection)}
+     * @param objs
+     * @return the rows written on each chunk
+     */
+    protected BatchResult updateAll(Collection<? extends T> objs) {
+    	return writeAll("updateAll", objs, Session::update);
+    }
+
+    /**
+     * Remove a collection of records in chunks; see {@link #persistAll(Collection)}
+     * @param objs
+     * @return the rows written on each chunk
+     */
+    protected BatchResult deleteAll(Collection<? extends T> objs) {
+    	BatchResult result = writeAll("deleteAll", objs, Session::delete);
+    	counted(-result.getTotalRows());
+    	return result;
+    }
+
+    /**
+     * Apply the writer to every object in chunks. Standalone, it runs in its own session
+     * and transaction, clearing the session after each flush. Under a SessionDAOCtrl
+     * transaction the shared session is flushed at each chunk, but only the objects
+     * written here are evicted, and the commit is left to the controller. The chunks are
+     * reported written only after the commit (or the hand-over to the controller): on a
+     * failure, the ones flushed before it are reported rolled back.<br>
+     * The JDBC batching itself comes from hibernate.jdbc.batch_size (and it is disabled
+     * by Hibernate for inserts on IDENTITY keys).
+     */
+    private BatchResult writeAll(String operation, Collection<? extends T> objs, BiConsumer<Session, T> writer) {
+        BatchResult result = new BatchResult();
+        if (objs == null || objs.isEmpty()) {
+        	return result;
+        }
+        final long started = DaoMetrics.start();
+        final boolean standalone = sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction();
+        final int chunkSize = getBatchSize();
+        List<T> chunk = new ArrayList<T>(chunkSize);
+        // rows of the chunks flushed, not committed yet
+        List<Integer> flushed = new ArrayList<Integer>();
+        try {
+        	Session current = null;
+        	if (standalone) {
+        		startOperation();
+        		current = session;
+        	} else {
+        		current = sessionDAOCtrl.getSession();
+        	}
+        	for (final T obj : objs) {
+        		writer.accept(current, obj);
+        		chunk.add(obj);
+        		if (chunk.size() == chunkSize) {
+        			flushChunk(current, chunk, standalone, flushed);
+        		}
+        	}
+        	if (!chunk.isEmpty()) {
+        		flushChunk(current, chunk, standalone, flushed);
+        	}
+        	if (standalone) {
+        		tx.commit();
+        	}
+        	for (final Integer rows : flushed) {
+        		result.addChunk(rows);
+        	}
+        	written();
+        } catch (HibernateException e) {
+        	result.fail(e, flushed);
+        	log.error("GenericSessionDAO." + operation + "() failed: " + result, e);
+        	DaoMetrics.failure(this.inClass, operation, started);
+            HibernateFactory.rollback(tx);
+            executingTransaction = false;
+            throw new BatchException(result, e);
+        } catch (RuntimeException e) {
+        	DaoMetrics.failure(this.inClass, operation, started);
+        	throw e;
+        } finally {
+        	if (standalone) {
+        		HibernateFactory.close(session);
+        	}
+        }
+        DaoMetrics.success(this.inClass, operation, started, result.getTotalRows());
+        return result;
+    }
+
+    private void flushChunk(Session current, List<T> chunk, boolean standalone, List<Integer> flushed) {
+    	current.flush();
+    	if (standalone) {
+    		current.clear();
+    	} else {
+    		for (final T obj : chunk) {
+    			current.evict(obj);
+    		}
+    	}
+    	flushed.add(chunk.size());
+    	chunk.clear();
+    }
+
+    /**
+     * Insert a stream of records through a StatelessSession: no first-level cache,
+     * no dirty checking, no snapshots. Meant for append-only entities (raw readings);
+     * cascades, interceptors and the second-level cache are bypassed.<br>
+     * Standalone, it commits every {@link #getIngestCommitInterval()} rows; under a
+     * SessionDAOCtrl transaction it writes on the controller connection and the
+     * commit is left to it.
+     * @param objs
+     * @return the rows written on each commit interval
+     * @throws BatchException if some interval fails, with the intervals committed before it
+     * (none under a SessionDAOCtrl transaction, whose intervals are reported rolled back)
+     */
+    protected BatchResult insertStream(Iterator<? extends T> objs) {
+    	return ingest("insertStream", objs, false);
+    }
+
+    protected BatchResult insertStream(Iterable<? extends T> objs) {
+    	return ingest("insertStream", objs == null ? null : objs.iterator(), false);
+    }
+
+    /**
+     * Like {@link #insertStream(Iterator)}, but records already on the database
+     * (by the unsaved-value of the identifier, or a lookup for assigned keys) are updated
+     * @param objs
+     * @return the rows written on each commit interval
+     */
+    protected BatchResult upsertStream(Iterator<? extends T> objs) {
+    	return ingest("upsertStream", objs, true);
+    }
+
+    protected BatchResult upsertStream(Iterable<? extends T> objs) {
+    	return ingest("upsertStream", objs == null ? null : objs.iterator(), true);
+    }
+
+    private BatchResult ingest(String operation, Iterator<? extends T> objs, boolean upsert) {
+        BatchResult result = new BatchResult();
+        if (objs == null) {
+        	return result;
+        }
+        final long started = DaoMetrics.start();
+        final boolean standalone = sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction();
+        final int flushSize = getIngestBatchSize();
+        final int commitInterval = getIngestCommitInterval();
+        StatelessSession stateless = null;
+        Transaction ingestTx = null;
+        // rows of the intervals sent on the controller transaction, not committed yet
+        List<Integer> pending = new ArrayList<Integer>();
+        try {
+        	if (standalone) {
+        		stateless = HibernateFactory.openStatelessSession(factoryName);
+        		ingestTx = stateless.beginTransaction();
+        	} else {
+        		// pending changes of the controller go first, they may be referenced here
+        		Session shared = sessionDAOCtrl.getSession();
+        		shared.flush();
+        		stateless = HibernateFactory.openStatelessSession(factoryName, ((SessionImplementor) shared).connection());
+        	}
+        	final SessionImplementor implementor = (SessionImplementor) stateless;
+        	int uncommitted = 0;
+        	int inserted = 0;
+        	while (objs.hasNext()) {
+        		final T obj = objs.next();
+        		if (upsert && !isTransient(stateless, obj)) {
+        			stateless.update(obj);
+        		} else {
+        			stateless.insert(obj);
+        			inserted++;
+        		}
+        		uncommitted++;
+        		if (uncommitted % flushSize == 0) {
+        			implementor.getTransactionCoordinator().getJdbcCoordinator().executeBatch();
+        		}
+        		if (uncommitted == commitInterval) {
+        			ingestTx = commitInterval(stateless, ingestTx, uncommitted, result, pending);
+        			counted(inserted);
+        			uncommitted = 0;
+        			inserted = 0;
+        		}
+        	}
+        	if (uncommitted > 0) {
+        		commitInterval(stateless, ingestTx, uncommitted, result, pending);
+        		counted(inserted);
+        	} else if (ingestTx != null) {
+        		ingestTx.commit();
+        	}
+        	for (final Integer rows : pending) {
+        		result.addChunk(rows);
+        	}
+        } catch (HibernateException e) {
+        	result.fail(e, pending);
+        	log.error("GenericSessionDAO." + operation + "() failed: " + result, e);
+        	DaoMetrics.failure(this.inClass, operation, started);
+        	if (standalone) {
+        		HibernateFactory.rollback(ingestTx);
+        	} else {
+        		if (stateless != null) {
+        			((SessionImplementor) stateless).getTransactionCoordinator().getJdbcCoordinator().abortBatch();
+        		}
+        		HibernateFactory.rollback(tx);
+        		executingTransaction = false;
+        	}
+        	throw new BatchException(result, e);
+        } catch (RuntimeException e) {
+        	DaoMetrics.failure(this.inClass, operation, started);
+        	throw e;
+        } finally {
+        	HibernateFactory.close(stateless);
+        	if (result.getChunkCount() > 0) {
+        		written();
+        	}
+        }
+        DaoMetrics.success(this.inClass, operation, started, result.getTotalRows());
+        return result;
+    }
+
+    /**
+     * Send the pending JDBC batch and, standalone, commit and start the next transaction.
+     * Under a SessionDAOCtrl transaction the interval is only pending, until the ingestion ends
+     * @return the transaction to be used from now on
+     */
+    private Transaction commitInterval(StatelessSession stateless, Transaction ingestTx, int rows, BatchResult result,
+    		List<Integer> pending) {
+    	((SessionImplementor) stateless).getTransactionCoordinator().getJdbcCoordinator().executeBatch();
+    	Transaction next = ingestTx;
+    	if (ingestTx != null) {
+    		ingestTx.commit();
+    		next = stateless.beginTransaction();
+    		result.addChunk(rows);
+    	} else {
+    		pending.add(rows);
+    	}
+    	return next;
+    }
+
+    /**
+     * @return true if saveOrUpdate() would insert the object
+     */
+    private boolean isTransient(Session current, T obj) {
+    	return ForeignKeys.isTransient(metadata.getEntityName(), obj, null, (SessionImplementor) current);
+    }
+
+    private boolean isTransient(StatelessSession stateless, T obj) {
+    	final SessionImplementor implementor = (SessionImplementor) stateless;
+    	final EntityPersister persister = implementor.getEntityPersister(null, obj);
+    	final Boolean isTransient = persister.isTransient(obj, implementor);
+    	if (isTransient != null) {
+    		return isTransient;
+    	}
+    	// assigned identifier: only the database knows
+    	return stateless.get(persister.getEntityName(), persister.getIdentifier(obj, implementor)) == null;
+    }
+
     /**
      * Find an object by key
      * @param id
      * @return the object, if exists
      */
     protected Object find(Serializable id) {
-        log.debug(">> GenericSessionDAO.find(): " + this.inClass.toString());
+        final long started = DaoMetrics.start();
         Object obj = null;
         try {
         	if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
         		log.debug("Session object");
-	            startOperation();
+	            startReadOperation();
 	            obj = session.load(this.inClass, id);
-	            session.flush();
+	            if (!readOnly) {
+	            	session.flush();
+	            }
         	} else {
         		log.debug("Session sessionDAOCtrl");
         		obj = sessionDAOCtrl.getSession().load(this.inClass, id);
         		sessionDAOCtrl.getSession().flush();
         	}
         } catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "find", started);
             handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "find", started);
+            throw e;
         } finally {
         	if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
         		HibernateFactory.close(session);
         	}
-        	log.debug("<< GenericSessionDAO.find()");
         }
+        DaoMetrics.success(this.inClass, "find", started, obj == null ? 0 : 1);
         return obj;
     }
 
+    /**
+     * Find the objects of a set of keys: the ones already on the session or on the
+     * second-level cache come from there, the others from queries with IN lists of at most
+     * {@value #DEFAULT_IN_LIST_SIZE} keys (or the limit of the dialect, if lower).
+     * Unlike {@link #find(Serializable)}, the objects are initialized, not proxies.
+     * @param ids
+     * @return the objects by key, in the order of the ids; the keys not found are left out
+     */
+    protected Map<Serializable, T> findByIds(Collection<? extends Serializable> ids) {
+        final long started = DaoMetrics.start();
+        Map<Serializable, T> found = new LinkedHashMap<Serializable, T>();
+        if (ids == null || ids.isEmpty()) {
+        	return found;
+        }
+        Map<Serializable, T> byId = null;
+        try {
+        	Session current = null;
+        	if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
+        		startReadOperation();
+        		current = session;
+        	} else {
+        		current = sessionDAOCtrl.getSession();
+        	}
+        	byId = loadByIds(current, ids);
+        } catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "findByIds", started);
+            handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "findByIds", started);
+            throw e;
+        } finally {
+        	if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
+        		HibernateFactory.close(session);
+        	}
+        }
+        for (final Serializable id : ids) {
+        	T obj = byId == null ? null : byId.get(id);
+        	if (obj != null) {
+        		found.put(id, obj);
+        	}
+        }
+        DaoMetrics.success(this.inClass, "findByIds", started, found.size());
+        return found;
+    }
+
+    /**
+     * The objects of the keys: from the persistence context, the second-level cache
+     * or IN list queries, in this order
+     * @return the objects found, by key
+     */
+    private Map<Serializable, T> loadByIds(Session current, Collection<? extends Serializable> ids) {
+    	String idName = metadata.getIdentifierName();
+    	if (idName == null) {
+    		throw new DataAccessLayerException("Lookup by keys needs an identifier property on " + this.inClass.getName());
+    	}
+    	Map<Serializable, T> byId = new HashMap<Serializable, T>();
+    	final SessionImplementor implementor = (SessionImplementor) current;
+    	final EntityPersister persister = implementor.getFactory().getEntityPersister(metadata.getEntityName());
+    	List<Serializable> missing = new ArrayList<Serializable>();
+    	for (final Serializable id : new LinkedHashSet<Serializable>(ids)) {
+    		if (id == null) {
+    			continue;
+    		}
+    		Object obj = implementor.getPersistenceContext().getEntity(implementor.generateEntityKey(id, persister));
+    		if (obj == null && isCached(implementor, persister, id)) {
+    			obj = current.get(this.inClass, id);
+    		}
+    		if (obj != null) {
+    			byId.put(id, (T) obj);
+    		} else {
+    			missing.add(id);
+    		}
+    	}
+    	final int chunkSize = inListSize(implementor.getFactory().getDialect());
+    	for (int from = 0; from < missing.size(); from += chunkSize) {
+    		List<Serializable> chunk = missing.subList(from, Math.min(missing.size(), from + chunkSize));
+    		List<T> rows = current.createCriteria(this.inClass).add(Restrictions.in(idName, chunk)).list();
+    		for (final T row : rows) {
+    			byId.put(metadata.getIdentifier(row, current), row);
+    		}
+    	}
+    	return byId;
+    }
+
+    /**
+     * @return true if the second-level cache has the object of the key
+     */
+    private static boolean isCached(SessionImplementor implementor, EntityPersister persister, Serializable id) {
+    	if (!persister.hasCache() || !implementor.getCacheMode().isGetEnabled()) {
+    		return false;
+    	}
+    	CacheKey key = implementor.generateCacheKey(id, persister.getIdentifierType(), persister.getRootEntityName());
+    	return persister.getCacheAccessStrategy().get(key, implementor.getTimestamp()) != null;
+    }
+
+    private static int inListSize(Dialect dialect) {
+    	int limit = dialect.getInExpressionCountLimit();
+    	return limit > 0 ? Math.min(limit, DEFAULT_IN_LIST_SIZE) : DEFAULT_IN_LIST_SIZE;
+    }
+
     
     /**
      * Find all records from a entity
@@ -246,27 +972,31 @@ public abstract class GenericSessionDAO<T> {
      * @return List<T>
      */
     protected List<T> findAll() {
-        log.debug(">> GenericSessionDAO.findAll(): " + this.inClass.toString());
+        final long started = DaoMetrics.start();
         List<T> objects = null;
         try {
         	Query query = null;
         	if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
         		log.debug("Session object");
-	            startOperation();
-	            query = session.createQuery("from " + this.inClass.getName());
+	            startReadOperation();
+	            query = session.createQuery(metadata.getSelectAllHql());
         	} else {
         		log.debug("Session sessionDAOCtrl");
-	            query = sessionDAOCtrl.getSession().createQuery("from " + this.inClass.getName());
+	            query = sessionDAOCtrl.getSession().createQuery(metadata.getSelectAllHql());
         	}
         	objects = query.list();
         } catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "findAll", started);
             handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "findAll", started);
+            throw e;
         } finally {
         	if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
         		HibernateFactory.close(session);
         	}
-        	log.debug("<< GenericSessionDAO.findAll()");
         }
+        DaoMetrics.success(this.inClass, "findAll", started, objects == null ? 0 : objects.size());
         return objects;
     }
 
@@ -275,13 +1005,25 @@ public abstract class GenericSessionDAO<T> {
      * @return
      */
     protected List<T> findAllByCriteria() {
-		log.info(">> GenericSessionDAO.findByCriteria()");
+		final long started = DaoMetrics.start();
 		//Criteria crit = null;
+		ResultCache.Lookup cached = lookup("findAllByCriteria", null, null);
+		if (cached != null && cached.isHit()) {
+			List<T> hit = cachedList(cached);
+			DaoMetrics.success(this.inClass, "findAllByCriteria", started, hit.size());
+			return hit;
+		}
 		List<T> list = null;
 		try {
-            startOperation();
-            
-            Criteria crit = session.createCriteria(this.inClass);
+			Criteria crit = null;
+			if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
+				log.debug("Session object");
+	            startReadOperation();
+	            crit = session.createCriteria(this.inClass);
+			} else {
+				log.debug("Session sessionDAOCtrl");
+				crit = sessionDAOCtrl.getSession().createCriteria(this.inClass);
+			}
 
 		    // verify if exists order to apply
 		    if (orderList != null){
@@ -296,12 +1038,19 @@ public abstract class GenericSessionDAO<T> {
             }
 
 		    list = crit.list();
+		    store(cached, list);
 		} catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "findAllByCriteria", started);
             handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "findAllByCriteria", started);
+            throw e;
         } finally {
-    		log.info("<< GenericSessionDAO.findByCriteria()");
-            HibernateFactory.close(session);
+    		if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
+    			HibernateFactory.close(session);
+    		}
         }
+		DaoMetrics.success(this.inClass, "findAllByCriteria", started, list == null ? 0 : list.size());
 		return list;
     }
 
@@ -312,13 +1061,13 @@ public abstract class GenericSessionDAO<T> {
      * @deprecated
      */
     protected List<T> findByCriteria(Criterion... criterion) {
-		log.info(">> GenericSessionDAO.findByCriteria()");
+		final long started = DaoMetrics.start();
 		List<T> list = null;
 		try {
 			Criteria crit = null;
 			if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
 				log.debug("Session object");
-	            startOperation();
+	            startReadOperation();
 	            crit = session.createCriteria(this.inClass);
 			} else {
 				log.debug("Session sessionDAOCtrl");
@@ -334,13 +1083,17 @@ public abstract class GenericSessionDAO<T> {
 		    list = crit.list();
 			
 		} catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "findByCriteria", started);
             handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "findByCriteria", started);
+            throw e;
         } finally {
     		if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
     			HibernateFactory.close(session);
     		}
-    		log.info("<< GenericSessionDAO.findByCriteria()");
         }
+		DaoMetrics.success(this.inClass, "findByCriteria", started, list == null ? 0 : list.size());
 		return list;
     }
     
@@ -351,13 +1104,13 @@ public abstract class GenericSessionDAO<T> {
      * @deprecated
      */
     protected List<T> findByCriteria(ArrayList<Criterion> criterions) {
-		log.info(">> GenericSessionDAO.findByCriteria(ArrayList<Criterion>)");
+		final long started = DaoMetrics.start();
 		List<T> list = null;
 		try {
 			Criteria crit = null;
 			if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
 				log.debug("Session object");
-				startOperation();
+				startReadOperation();
 				crit = session.createCriteria(this.inClass);
 			} else {
 				log.debug("Session sessionDAOCtrl");
@@ -371,13 +1124,17 @@ public abstract class GenericSessionDAO<T> {
             }
 		    list = crit.list();
 		} catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "findByCriteria", started);
             handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "findByCriteria", started);
+            throw e;
         } finally {
     		if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
     			HibernateFactory.close(session);
     		}
-            log.info("<< GenericSessionDAO.findByCriteria(ArrayList<Criterion>)");
         }
+		DaoMetrics.success(this.inClass, "findByCriteria", started, list == null ? 0 : list.size());
 		return list;
     }
 
@@ -386,49 +1143,372 @@ public abstract class GenericSessionDAO<T> {
      * @return
      */
     protected List<T> findByCriteria() {
-		log.info(">> GenericSessionDAO.findByCriteria()");
+		final long started = DaoMetrics.start();
+		ResultCache.Lookup cached = lookup("findByCriteria", criterionList, null);
+		if (cached != null && cached.isHit()) {
+			List<T> hit = cachedList(cached);
+			DaoMetrics.success(this.inClass, "findByCriteria", started, hit.size());
+			return hit;
+		}
 		Criteria crit = null;
 		List<T> list = null;
 		try {
 			if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
 				log.debug("Session object");
-	            startOperation();
+	            startReadOperation();
 			    crit = session.createCriteria(this.inClass);
 			} else {
 				log.debug("Session sessionDAOCtrl");
 				crit = sessionDAOCtrl.getSession().createCriteria(this.inClass);
 			}
 
-			// verify is exists some criterias to apply
-		    if(criterionList != null) {
-			    for (final Criterion c : criterionList) {
-			    	crit.add(c);
-			    }
+		    list = applyCriteria(crit, criterionList).list();
+		    store(cached, list);
+		} catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "findByCriteria", started);
+            handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "findByCriteria", started);
+            throw e;
+        } finally {
+    		if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
+    			HibernateFactory.close(session);
+    		}
+        }
+		DaoMetrics.success(this.inClass, "findByCriteria", started, list == null ? 0 : list.size());
+		return list;
+    }
+    
+    /**
+     * Stream all records from a entity, fetching them lazily from a forward-only cursor.
+     * The stream must be closed (try-with-resources) to release the cursor and the session.
+     * @return Stream<T>
+     */
+    protected Stream<T> streamAll() {
+    	final String hql = metadata.getSelectAllHql();
+    	return stream("streamAll", s -> s.createQuery(hql).setFetchSize(getFetchSize()).scroll(ScrollMode.FORWARD_ONLY));
+    }
+
+    /**
+     * Stream the records matching the criterion list, with the order and projection
+     * lists applied as in {@link #findByCriteria()}, fetching them lazily from a
+     * forward-only cursor. The stream must be closed to release the cursor and the session.
+     * @return Stream<T>
+     */
+    protected Stream<T> streamByCriteria() {
+    	return stream("streamByCriteria", s -> applyCriteria(s.createCriteria(this.inClass), criterionList)
+    			.setFetchSize(getFetchSize()).scroll(ScrollMode.FORWARD_ONLY));
+    }
+
+    /**
+     * Open the cursor on a session owned by the stream. Under a SessionDAOCtrl transaction
+     * it is a child session sharing the controller connection (and transaction), so the
+     * evictions done while streaming do not touch the controller persistence context.
+     */
+    private Stream<T> stream(String operation, Function<Session, ScrollableResults> opener) {
+    	final long started = DaoMetrics.start();
+    	Session streamSession = null;
+    	Transaction streamTx = null;
+    	try {
+    		if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()) {
+    			String readFactory = readFactoryName();
+    			streamSession = HibernateFactory.openSession(readFactory);
+    			streamTx = streamSession.beginTransaction();
+    			readOnly(streamSession, readFactory);
+    		} else {
+    			Session shared = sessionDAOCtrl.getSession();
+    			shared.flush();
+    			streamSession = shared.sessionWithOptions().connection().openSession();
+    		}
+    		final ScrollIterator<T> iterator = new ScrollIterator<T>(opener.apply(streamSession), streamSession, streamTx);
+    		iterator.recordAs(this.inClass, operation, started);
+    		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+    				.onClose(iterator::close);
+    	} catch (HibernateException e) {
+    		DaoMetrics.failure(this.inClass, operation, started);
+    		HibernateFactory.rollback(streamTx);
+    		HibernateFactory.close(streamSession);
+    		throw new DataAccessLayerException(e);
+    	} catch (RuntimeException e) {
+    		DaoMetrics.failure(this.inClass, operation, started);
+    		HibernateFactory.rollback(streamTx);
+    		HibernateFactory.close(streamSession);
+    		throw e;
+    	}
+    }
+
+    /**
+     * Go through the rows matching the criterion list on several threads, for the jobs that
+     * read a whole table. The range of the property (the identifier, or a date) is split in
+     * {@value #SCAN_PARTITIONS_PER_WORKER} partitions per worker, scanned a partition at a
+     * time by each worker on a stateless session and connection of its own, from a
+     * forward-only cursor. The order and projection lists do not apply; the entities come
+     * detached, with their lazy associations not loadable. Not in a SessionDAOCtrl
+     * transaction, whose writes the workers would not see.
+     * @param property number or date property to split on, the identifier if null
+     * @param workers threads, at most the connections of the pool; 0 for one per core
+     * @param consumer of the rows, called from the workers at the same time
+     * @return the rows scanned
+     */
+    protected long parallelScan(String property, int workers, Consumer<? super T> consumer) {
+    	LongAdder rows = new LongAdder();
+    	scan(property, workers, () -> null, (none, row) -> {
+    		consumer.accept(row);
+    		return null;
+    	}, rows);
+    	return rows.sum();
+    }
+
+    /**
+     * Reduce the rows matching the criterion list on several threads, as in
+     * {@link #parallelScan(String, int, Consumer)}: each partition is reduced from its own
+     * identity by one worker, and the partial results are combined in the order of the property
+     * @param property number or date property to split on, the identifier if null
+     * @param workers threads, at most the connections of the pool; 0 for one per core
+     * @param identity new (possibly mutable) result of a partition
+     * @param accumulator adds a row to the result of a partition
+     * @param combiner merges the results of two partitions
+     * @return the result of all the rows
+     */
+    protected <R> R parallelScan(String property, int workers, Supplier<R> identity,
+    		BiFunction<R, ? super T, R> accumulator, BinaryOperator<R> combiner) {
+    	R result = identity.get();
+    	for (final R partial : scan(property, workers, identity, accumulator, new LongAdder())) {
+    		result = combiner.apply(result, partial);
+    	}
+    	return result;
+    }
+
+    /**
+     * @return the result of each partition, in the order of the property
+     */
+    private <R> List<R> scan(String property, int workers, Supplier<R> identity, BiFunction<R, ? super T, R> accumulator,
+    		LongAdder rows) {
+    	if (sessionDAOCtrl != null && sessionDAOCtrl.isExecutingTransaction()) {
+    		throw new DataAccessLayerException("parallelScan cannot run in a SessionDAOCtrl transaction");
+    	}
+    	final String split = property != null ? property : metadata.getIdentifierName();
+    	if (split == null) {
+    		throw new DataAccessLayerException("parallelScan needs a property to split on " + this.inClass.getName());
+    	}
+    	final long started = DaoMetrics.start();
+    	final String readFactory = readFactoryName();
+    	final int threads = scanWorkers(readFactory, workers);
+    	// the workers must not see later changes of the list
+    	final List<Criterion> filter = new ArrayList<Criterion>(criterionList);
+    	final AtomicBoolean stop = new AtomicBoolean();
+    	final AtomicInteger workerCount = new AtomicInteger();
+    	final List<Future<R>> tasks = new ArrayList<Future<R>>();
+    	ExecutorService pool = null;
+    	try {
+    		List<Criterion> partitions = partitions(readFactory, split, filter, threads * SCAN_PARTITIONS_PER_WORKER);
+    		pool = Executors.newFixedThreadPool(threads, runnable -> {
+    			Thread worker = new Thread(runnable, "sensus-scan-" + this.inClass.getSimpleName() + "-"
+    					+ workerCount.incrementAndGet());
+    			worker.setDaemon(true);
+    			return worker;
+    		});
+    		for (final Criterion partition : partitions) {
+    			tasks.add(pool.submit(() -> scanPartition(readFactory, filter, partition, identity, accumulator, rows, stop)));
+    		}
+    		List<R> partials = new ArrayList<R>(tasks.size());
+    		for (final Future<R> task : tasks) {
+    			partials.add(task.get());
+    		}
+    		DaoMetrics.success(this.inClass, "parallelScan", started, rows.sum());
+    		return partials;
+    	} catch (HibernateException e) {
+    		DaoMetrics.failure(this.inClass, "parallelScan", started);
+    		throw new DataAccessLayerException(e);
+    	} catch (RuntimeException e) {
+    		DaoMetrics.failure(this.inClass, "parallelScan", started);
+    		throw e;
+    	} catch (ExecutionException e) {
+    		DaoMetrics.failure(this.inClass, "parallelScan", started);
+    		log.error("GenericSessionDAO.parallelScan() failed after " + rows.sum() + " rows", e.getCause());
+    		if (e.getCause() instanceof HibernateException) {
+    			throw new DataAccessLayerException(e.getCause());
+    		}
+    		if (e.getCause() instanceof RuntimeException) {
+    			throw (RuntimeException) e.getCause();
+    		}
+    		if (e.getCause() instanceof Error) {
+    			throw (Error) e.getCause();
+    		}
+    		throw new DataAccessLayerException(e.getCause());
+    	} catch (InterruptedException e) {
+    		DaoMetrics.failure(this.inClass, "parallelScan", started);
+    		Thread.currentThread().interrupt();
+    		throw new DataAccessLayerException(e);
+    	} finally {
+    		// on a failure the partitions not started are dropped, and the running ones stop at their next row
+    		stop.set(true);
+    		for (final Future<R> task : tasks) {
+    			task.cancel(false);
+    		}
+    		if (pool != null) {
+    			pool.shutdown();
+    		}
+    	}
+    }
+
+    /**
+     * The partitions of the range of the property, read on a session of its own, plus the
+     * rows where it is null, if it can be
+     */
+    private List<Criterion> partitions(String factory, String property, List<Criterion> filter, int count) {
+    	Session rangeSession = HibernateFactory.openSession(factory);
+    	Transaction rangeTx = null;
+    	try {
+    		rangeTx = rangeSession.beginTransaction();
+    		readOnly(rangeSession, factory);
+    		Criteria criteria = rangeSession.createCriteria(this.inClass)
+    				.setProjection(Projections.projectionList().add(Projections.min(property)).add(Projections.max(property)));
+    		for (final Criterion c : filter) {
+    			criteria.add(c);
+    		}
+    		Object[] range = (Object[]) criteria.uniqueResult();
+    		List<Criterion> partitions = ScanPartitions.split(property, range[0], range[1], count);
+    		if (isNullable(property)) {
+    			partitions.add(Restrictions.isNull(property));
+    		}
+    		return partitions;
+    	} finally {
+    		HibernateFactory.rollback(rangeTx);
+    		HibernateFactory.close(rangeSession);
+    	}
+    }
+
+    private boolean isNullable(String property) {
+    	if (property.equals(metadata.getIdentifierName())) {
+    		return false;
+    	}
+    	ClassMetadata classMetadata = metadata.getClassMetadata();
+    	String[] names = classMetadata.getPropertyNames();
+    	for (int i = 0; i < names.length; i++) {
+    		if (names[i].equals(property)) {
+    			return classMetadata.getPropertyNullability()[i];
+    		}
+    	}
+    	// a path into a component or an association
+    	return true;
+    }
+
+    /**
+     * Scan one partition on a stateless session, until its end or the stop of the scan
+     */
+    private <R> R scanPartition(String factory, List<Criterion> filter, Criterion partition, Supplier<R> identity,
+    		BiFunction<R, ? super T, R> accumulator, LongAdder rows, AtomicBoolean stop) throws SQLException {
+    	R partial = identity.get();
+    	if (stop.get()) {
+    		// the scan failed meanwhile, its result is dropped
+    		return partial;
+    	}
+    	StatelessSession stateless = HibernateFactory.openStatelessSession(factory);
+    	Transaction scanTx = null;
+    	ScrollableResults results = null;
+    	long count = 0;
+    	try {
+    		scanTx = stateless.beginTransaction();
+    		if (readOnly && isReadOnlyConnections(factory)) {
+    			((SessionImplementor) stateless).connection().setReadOnly(true);
+    		}
+    		Criteria criteria = stateless.createCriteria(this.inClass).add(partition);
+    		for (final Criterion c : filter) {
+    			criteria.add(c);
+    		}
+    		results = criteria.setFetchSize(getFetchSize()).scroll(ScrollMode.FORWARD_ONLY);
+    		while (!stop.get() && results.next()) {
+    			partial = accumulator.apply(partial, (T) results.get(0));
+    			count++;
+    		}
+    		return partial;
+    	} catch (RuntimeException | SQLException e) {
+    		stop.set(true);
+    		throw e;
+    	} finally {
+    		rows.add(count);
+    		if (results != null) {
+    			results.close();
+    		}
+    		HibernateFactory.rollback(scanTx);
+    		HibernateFactory.close(stateless);
+    	}
+    }
+
+    /**
+     * @return the workers asked, or one per core, within the connections of the pool
+     */
+    private static int scanWorkers(String factory, int workers) {
+    	int threads = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+    	PoolMetrics pool = HibernateFactory.getPoolMetrics(factory);
+    	if (pool != null && pool.getMaxSize() > 0 && threads > pool.getMaxSize()) {
+    		log.debug("parallelScan limited to the " + pool.getMaxSize() + " connections of " + pool.getPoolName());
+    		threads = pool.getMaxSize();
+    	}
+    	return Math.max(1, threads);
+    }
+
+    /**
+     * Apply the criterions, the order list and the projection list on a criteria
+     * @param crit
+     * @param criterions
+     * @return the same criteria
+     */
+    private Criteria applyCriteria(Criteria crit, List<Criterion> criterions) {
+		// verify is exists some criterias to apply
+	    if(criterions != null) {
+		    for (final Criterion c : criterions) {
+		    	crit.add(c);
 		    }
-		    // verify if exists order to apply
-		    if (orderList != null){
-            	for (final Order order : orderList) {
-            		crit.addOrder(order);
-				}
-            }
-		    
-		    // verify if exists fields to retrieve
-		    if (projectionList != null && projectionList.getLength() > 0){
-		    	crit.setProjection(projectionList);
-            }
+	    }
+	    // verify if exists order to apply
+	    if (orderList != null){
+        	for (final Order order : orderList) {
+        		crit.addOrder(order);
+			}
+        }
+	    
+	    // verify if exists fields to retrieve
+	    if (projectionList != null && projectionList.getLength() > 0){
+	    	crit.setProjection(projectionList);
+        }
+	    return crit;
+    }
+
+    /**
+     * Look a query up in the result cache, when this DAO enabled it and
+     * is not in a SessionDAOCtrl transaction (it could see uncommitted rows)
+     * @param operation
+     * @param criterions
+     * @param bounds
+     * @return the lookup, or null if the query is not cached
+     */
+    private ResultCache.Lookup lookup(String operation, List<Criterion> criterions, Object bounds) {
+    	if (resultCache == null || (sessionDAOCtrl != null && sessionDAOCtrl.isExecutingTransaction())) {
+    		return null;
+    	}
+    	return resultCache.lookup(operation, criterions, orderList, projectionList, bounds);
+    }
+
+    /**
+     * A copy of the list found, the rows themselves are shared: do not change them
+     */
+    private List<T> cachedList(ResultCache.Lookup cached) {
+    	List<T> list = cachedValue(cached);
+    	return new ArrayList<T>(list);
+    }
 
-		    list = crit.list();
-		} catch (HibernateException e) {
-            handleException(e);
-        } finally {
-    		if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
-    			HibernateFactory.close(session);
-    		}
-            log.info("<< GenericSessionDAO.findByCriteria()");
-        }
-		return list;
+    private <R> R cachedValue(ResultCache.Lookup cached) {
+    	return (R) cached.getValue();
     }
-    
+
+    private void store(ResultCache.Lookup cached, List<T> list) {
+    	if (cached != null && list != null) {
+    		cached.store(new ArrayList<T>(list));
+    	}
+    }
+
     /**
      * table rows count giving a criterion list
      * @param criterions
@@ -436,7 +1516,7 @@ public abstract class GenericSessionDAO<T> {
      * @deprecated use rowsCountCriteria() setting the criterias or ordering
      */
     protected Long rowsCount(ArrayList<Criterion> criterions) {
-		log.info(">>GenericSessionDAO:countForPagination(criterions)");
+		final long started = DaoMetrics.start();
 
 		Long count = 0L;
 		
@@ -444,7 +1524,7 @@ public abstract class GenericSessionDAO<T> {
 			Criteria criteriaCount = null;
 			if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
 				log.debug("Session object");
-				startOperation();
+				startReadOperation();
 				criteriaCount = session.createCriteria(this.inClass);
 			} else {
 				log.debug("Session sessionDAOCtrl");
@@ -458,12 +1538,6 @@ public abstract class GenericSessionDAO<T> {
 			    	criteriaCount.add(c);
 			    }
     		}
-		    // verify if existe order to apply
-		    if (orderList != null){
-            	for (final Order order : orderList) {
-            		criteriaCount.addOrder(order);
-				}
-            }
 		    
 		    // verify if exists fields to retrieve
 		    if (projectionList != null && projectionList.getLength() > 0){
@@ -472,13 +1546,17 @@ public abstract class GenericSessionDAO<T> {
 
 			count = (Long) criteriaCount.uniqueResult();
 		} catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "rowsCount", started);
             handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "rowsCount", started);
+            throw e;
         } finally {
     		if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
     			HibernateFactory.close(session);
     		}
-    		log.info("<<GenericSessionDAO:countForPagination(criterions)");
         }
+		DaoMetrics.success(this.inClass, "rowsCount", started, -1);
 		return count;
     }
     
@@ -495,7 +1573,7 @@ public abstract class GenericSessionDAO<T> {
      * @return numer of regsters
      */
     protected Long rowsCountCriteria() {
-		log.info(">>GenericSessionDAO.rowsCountCriteria()");
+		final long started = DaoMetrics.start();
 
 		Long count = 0L;
 		
@@ -503,7 +1581,7 @@ public abstract class GenericSessionDAO<T> {
 			Criteria criteriaCount = null;
 			if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
 				log.debug("Session object");
-				startOperation();
+				startReadOperation();
 				criteriaCount = session.createCriteria(this.inClass);
 			} else {
 				log.debug("Session sessionDAOCtrl");
@@ -516,12 +1594,6 @@ public abstract class GenericSessionDAO<T> {
     		    	criteriaCount.add(c);
     		    }
             }
-		    // verify if existe order to apply
-		    if (orderList != null){
-            	for (Order order : orderList) {
-            		criteriaCount.addOrder(order);
-				}
-            }
 		    
 		    // verify if exists fields to retrieve
 		    if (projectionList != null && projectionList.getLength() > 0){
@@ -530,16 +1602,113 @@ public abstract class GenericSessionDAO<T> {
 
 			count = (Long) criteriaCount.uniqueResult();
 		} catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "rowsCount", started);
             handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "rowsCount", started);
+            throw e;
         } finally {
     		if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
     			HibernateFactory.close(session);
     		}
-    		log.info("<<GenericSessionDAO.rowsCountCriteria()");
         }
+		DaoMetrics.success(this.inClass, "rowsCount", started, -1);
 		return count;
     }
     
+    /**
+     * Rows of the entity from the source asked, when it can answer: the statistics and the
+     * counter only count the whole table (empty criterion list), the counter once enabled
+     * ({@link #enableRowCounter()}) and outside a SessionDAOCtrl transaction (it does not
+     * see the writes not committed). Otherwise, or if the database keeps no statistics, a
+     * COUNT(*) of the rows matching the criterion list is run.
+     * @param source
+     * @return the count and the source it came from
+     */
+    protected CountResult rowsCount(CountResult.Source source) {
+		final long started = DaoMetrics.start();
+		final boolean standalone = sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction();
+		CountResult result = null;
+		// whether startReadOperation() opened the session, and tx is ours to roll back
+		boolean reading = false;
+		try {
+			if (source == CountResult.Source.EXACT_COUNTER && standalone && criterionList.isEmpty()) {
+				RowCounter counter = RowCounter.forEntity(factoryName, this.inClass);
+				if (counter != null) {
+					// seeded on the primary, a replica may be behind
+					result = new CountResult(counter.get(() -> countOn(factoryName)), source);
+				}
+			} else if (source == CountResult.Source.APPROXIMATE_STATISTICS && criterionList.isEmpty()) {
+				Long estimate = estimateOn(readFactoryName());
+				if (estimate != null) {
+					result = new CountResult(estimate, source);
+				}
+			}
+			if (result == null) {
+				Session current;
+				if (standalone) {
+					reading = true;
+					startReadOperation();
+					current = session;
+				} else {
+					current = sessionDAOCtrl.getSession();
+				}
+				result = new CountResult(countRows(current), CountResult.Source.EXACT_QUERY);
+			}
+		} catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "rowsCount", started);
+            if (!reading) {
+            	// on the sessions of countOn(), estimateOn() or the controller: tx is stale
+            	throw new DataAccessLayerException(e);
+            }
+            handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "rowsCount", started);
+            throw e;
+        } finally {
+    		if (reading) {
+    			HibernateFactory.close(session);
+    		}
+        }
+		DaoMetrics.success(this.inClass, "rowsCount", started, -1);
+		return result;
+    }
+
+    /**
+     * COUNT(*) of the rows matching the criterion list, on a read session of its own
+     */
+    private long countOn(String factory) {
+    	Session countSession = HibernateFactory.openSession(factory);
+    	Transaction countTx = null;
+    	try {
+    		countTx = countSession.beginTransaction();
+    		readOnly(countSession, factory);
+    		return countRows(countSession);
+    	} finally {
+    		HibernateFactory.rollback(countTx);
+    		HibernateFactory.close(countSession);
+    	}
+    }
+
+    /**
+     * The estimate of the database statistics, on a read session of its own: a failure
+     * there must not abort the transaction of anybody
+     */
+    private Long estimateOn(String factory) {
+    	Session statisticsSession = HibernateFactory.openSession(factory);
+    	Transaction statisticsTx = null;
+    	try {
+    		statisticsTx = statisticsSession.beginTransaction();
+    		readOnly(statisticsSession, factory);
+    		EntityPersister persister = ((SessionImplementor) statisticsSession).getFactory()
+    				.getEntityPersister(metadata.getEntityName());
+    		return TableStatistics.estimate(statisticsSession, persister);
+    	} finally {
+    		HibernateFactory.rollback(statisticsTx);
+    		HibernateFactory.close(statisticsSession);
+    	}
+    }
+
     /**
      * List for pagination by a T class, using a start and finish records
      * @param start
@@ -547,13 +1716,19 @@ public abstract class GenericSessionDAO<T> {
      * @return List<T>
      */
     protected List<T> listForPagination(int start, int finish) {
-		log.info(">> GenericSessionDAO.listForPagination()");
+		final long started = DaoMetrics.start();
+		ResultCache.Lookup cached = lookup("listForPagination", criterionList, start + "," + finish);
+		if (cached != null && cached.isHit()) {
+			List<T> hit = cachedList(cached);
+			DaoMetrics.success(this.inClass, "listForPagination", started, hit.size());
+			return hit;
+		}
 		List<T> pages = null;
 		try {
 			Criteria criteria = null;
 			if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
 				log.debug("Session object");
-				startOperation();
+				startReadOperation();
 				criteria = session.createCriteria(this.inClass);
 			} else {
 				log.debug("Session sessionDAOCtrl");
@@ -582,16 +1757,20 @@ public abstract class GenericSessionDAO<T> {
             }
 		    
             pages = criteria.list();
-    		log.info(">> GenericSessionDAO.listForPagination() pages size: " + pages.size());
+            store(cached, pages);
 
 		} catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "listForPagination", started);
             handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "listForPagination", started);
+            throw e;
         } finally {
     		if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
     			HibernateFactory.close(session);
     		}
-    		log.info("<<GenericSessionDAO.listForPagination()");
         }
+		DaoMetrics.success(this.inClass, "listForPagination", started, pages == null ? 0 : pages.size());
 		return pages;
     }
     
@@ -603,13 +1782,20 @@ public abstract class GenericSessionDAO<T> {
      * @return List<T>
      */
     protected List<T> listForPagination(int start, int finish, Criterion... criterion) {
-		log.info(">>GenericSessionDAO:listForPagination(Criterion)");
+		final long started = DaoMetrics.start();
+		// the criterions applied are the ones of the criterion list
+		ResultCache.Lookup cached = lookup("listForPagination", criterionList, start + "," + finish);
+		if (cached != null && cached.isHit()) {
+			List<T> hit = cachedList(cached);
+			DaoMetrics.success(this.inClass, "listForPagination", started, hit.size());
+			return hit;
+		}
 		List<T> pages = null;
 		try {
 			Criteria criteria = null;
 			if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
 				log.debug("Session object");
-				startOperation();
+				startReadOperation();
 				criteria = session.createCriteria(this.inClass);
 			} else {
 				log.debug("Session sessionDAOCtrl");
@@ -637,15 +1823,20 @@ public abstract class GenericSessionDAO<T> {
             }
 
             pages = criteria.list();
+            store(cached, pages);
 
 		} catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "listForPagination", started);
             handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "listForPagination", started);
+            throw e;
         } finally {
     		if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
     			HibernateFactory.close(session);
     		}
-    		log.info("<<GenericSessionDAO:listForPagination(Criterion)");
         }
+		DaoMetrics.success(this.inClass, "listForPagination", started, pages == null ? 0 : pages.size());
 		return pages;
     }
 
@@ -657,13 +1848,19 @@ public abstract class GenericSessionDAO<T> {
      * @return List<T>
      */
     protected List<T> listForPagination(int start, int finish, ArrayList<Criterion> criterions) {
-		log.info(">>GenericSessionDAO.listForPagination(int, int, ArrayList<Criterion>)");
+		final long started = DaoMetrics.start();
+		ResultCache.Lookup cached = lookup("listForPagination", criterions, start + "," + finish);
+		if (cached != null && cached.isHit()) {
+			List<T> hit = cachedList(cached);
+			DaoMetrics.success(this.inClass, "listForPagination", started, hit.size());
+			return hit;
+		}
 		List<T> pages = null;
 		try {
 			Criteria criteria = null;
 			if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
 				log.debug("Session object");
-				startOperation();
+				startReadOperation();
 				criteria = session.createCriteria(this.inClass);
 			} else {
 				log.debug("Session sessionDAOCtrl");
@@ -692,26 +1889,314 @@ public abstract class GenericSessionDAO<T> {
             }
 		    
             pages = criteria.list();
+            store(cached, pages);
 
 		} catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "listForPagination", started);
             handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "listForPagination", started);
+            throw e;
         } finally {
     		if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
     			HibernateFactory.close(session);
     		}
-    		log.info("<<GenericSessionDAO.listForPagination(int, int, ArrayList<Criterion>)");
         }
+		DaoMetrics.success(this.inClass, "listForPagination", started, pages == null ? 0 : pages.size());
 		return pages;
     }
 
+
+    /**
+     * Keyset (seek) pagination: the page after the cursor, ordered by the order list
+     * plus the identifier as tie-breaker. Instead of skipping the rows of the previous
+     * pages (setFirstResult), it seeks after the last key seen, so the cost of a page
+     * does not grow with its depth when there is an index on the ordering keys.<br>
+     * The keys must not be null and, with a projection list, must be projected.
+     * @param after the cursor of the previous page, null for the first one
+     * @param pageSize
+     * @return the rows and the cursor of the next page
+     */
+    protected KeysetPage<T> listForPagination(KeysetCursor after, int pageSize) {
+		final long started = DaoMetrics.start();
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+		}
+		ResultCache.Lookup cached = lookup("listForPagination", criterionList,
+				(after == null ? "" : after.encode()) + "," + pageSize);
+		if (cached != null && cached.isHit()) {
+			KeysetPage<T> hit = cachedValue(cached);
+			DaoMetrics.success(this.inClass, "listForPaginationKeyset", started, hit.getRows().size());
+			return new KeysetPage<T>(new ArrayList<T>(hit.getRows()), hit.getNext());
+		}
+		KeysetPage<T> page = null;
+		try {
+			Criteria criteria = null;
+			Session current = null;
+			if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
+				startReadOperation();
+				current = session;
+			} else {
+				current = sessionDAOCtrl.getSession();
+			}
+			criteria = applyCriteria(current.createCriteria(this.inClass), criterionList);
+
+			final ClassMetadata metadata = this.metadata.getClassMetadata();
+			final List<Order> keys = keysetOrder(metadata);
+			final String[] names = new String[keys.size()];
+			for (int i = 0; i < names.length; i++) {
+				names[i] = keys.get(i).getPropertyName();
+				if (i >= orderList.size()) {
+					criteria.addOrder(keys.get(i));
+				}
+			}
+			if (after != null) {
+				if (!Arrays.equals(names, after.getKeys())) {
+					throw new DataAccessLayerException("Keyset cursor " + after + " does not match the ordering " + keys);
+				}
+				criteria.add(seekAfter(keys, after.getValues()));
+			}
+			// one more row tells if there is a next page
+			criteria.setMaxResults(pageSize + 1);
+
+			List<T> rows = criteria.list();
+			KeysetCursor next = null;
+			if (rows.size() > pageSize) {
+				rows = new ArrayList<T>(rows.subList(0, pageSize));
+				next = new KeysetCursor(names, keyValues(rows.get(pageSize - 1), names, metadata, current));
+			}
+			page = new KeysetPage<T>(rows, next);
+			if (cached != null) {
+				cached.store(new KeysetPage<T>(new ArrayList<T>(rows), next));
+			}
+		} catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "listForPaginationKeyset", started);
+            handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "listForPaginationKeyset", started);
+            throw e;
+        } finally {
+    		if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
+    			HibernateFactory.close(session);
+    		}
+        }
+		DaoMetrics.success(this.inClass, "listForPaginationKeyset", started, page == null ? 0 : page.getRows().size());
+		return page;
+    }
+
+    /**
+     * The order list, followed by the identifier when it is not already there
+     */
+    private List<Order> keysetOrder(ClassMetadata metadata) {
+    	List<Order> keys = new ArrayList<Order>(orderList);
+    	String idName = metadata.getIdentifierPropertyName();
+    	boolean hasId = false;
+    	for (final Order order : orderList) {
+    		if (order.isIgnoreCase()) {
+    			throw new DataAccessLayerException("Keyset pagination does not support ignoreCase ordering: " + order);
+    		}
+    		hasId |= order.getPropertyName().equals(idName);
+    	}
+    	if (!hasId) {
+    		if (idName == null) {
+    			throw new DataAccessLayerException("Keyset pagination needs an identifier property on " + this.inClass.getName());
+    		}
+    		keys.add(Order.asc(idName));
+    	}
+    	return keys;
+    }
+
+    /**
+     * (k1,k2,...) after (v1,v2,...) expanded as k1 >= v1 and (k1 > v1 or (k1 = v1 and k2 > v2) or ...),
+     * since row value comparison is not available on Oracle nor SQL Server; the leading
+     * k1 >= v1 gives the optimizer the start of the index range.
+     */
+    private Criterion seekAfter(List<Order> keys, Object[] values) {
+    	Disjunction after = Restrictions.disjunction();
+    	for (int i = 0; i < keys.size(); i++) {
+    		Conjunction step = Restrictions.conjunction();
+    		for (int j = 0; j < i; j++) {
+    			step.add(Restrictions.eq(keys.get(j).getPropertyName(), values[j]));
+    		}
+    		Order key = keys.get(i);
+    		step.add(key.isAscending() ? Restrictions.gt(key.getPropertyName(), values[i])
+    				: Restrictions.lt(key.getPropertyName(), values[i]));
+    		after.add(step);
+    	}
+    	Order first = keys.get(0);
+    	Criterion start = first.isAscending() ? Restrictions.ge(first.getPropertyName(), values[0])
+    			: Restrictions.le(first.getPropertyName(), values[0]);
+    	return Restrictions.and(start, after);
+    }
+
+    /**
+     * Read the ordering keys of a row: from the entity or from the projected columns
+     */
+    private Object[] keyValues(Object row, String[] names, ClassMetadata metadata, Session current) {
+    	Object[] values = new Object[names.length];
+    	String[] aliases = projectionList != null && projectionList.getLength() > 0 ? projectionList.getAliases() : null;
+    	for (int i = 0; i < names.length; i++) {
+    		if (aliases != null) {
+    			int index = Arrays.asList(aliases).indexOf(names[i]);
+    			if (index < 0) {
+    				throw new DataAccessLayerException("Keyset key " + names[i] + " must be on the projection list");
+    			}
+    			values[i] = row instanceof Object[] ? ((Object[]) row)[index] : row;
+    		} else if (names[i].equals(metadata.getIdentifierPropertyName())) {
+    			values[i] = metadata.getIdentifier(row, (SessionImplementor) current);
+    		} else {
+    			values[i] = metadata.getPropertyValue(row, names[i]);
+    		}
+    		if (values[i] == null) {
+    			throw new DataAccessLayerException("Keyset key " + names[i] + " is null; keyset pagination needs not null keys");
+    		}
+    	}
+    	return values;
+    }
     
+    /**
+     * A page of the rows matching the criterion list, ordered by the order list and with the
+     * projection list, as {@link #listForPagination(int, int)}, and the rows and total read
+     * on a single session.<br>
+     * With the total, on the dialects with window functions it comes with the page, from a
+     * COUNT(*) OVER() column: that statement selects the keys (or the projection) and the
+     * objects of the keys are then looked up as in {@link #findByIds(Collection)}. On the
+     * other dialects, or with a grouping projection, a count without ordering runs first.
+     * The total is of the entity rows matching the criterions.<br>
+     * Without the total, one more row is read to tell if there is a next page.
+     * @param start position of the first row
+     * @param pageSize
+     * @param withTotal true to count the rows matching the criterions
+     * @return the page
+     */
+    protected Page<T> listPage(int start, int pageSize, boolean withTotal) {
+		final long started = DaoMetrics.start();
+		if (start < 0 || pageSize < 1) {
+			throw new IllegalArgumentException("Invalid page: start " + start + ", size " + pageSize);
+		}
+		ResultCache.Lookup cached = lookup("listPage", criterionList, start + "," + pageSize + "," + withTotal);
+		if (cached != null && cached.isHit()) {
+			Page<T> hit = cachedValue(cached);
+			DaoMetrics.success(this.inClass, "listPage", started, hit.getRows().size());
+			return new Page<T>(new ArrayList<T>(hit.getRows()), start, pageSize, hit.getTotal(), hit.hasNext());
+		}
+		Page<T> page = null;
+		try {
+			Session current = null;
+			if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
+				startReadOperation();
+				current = session;
+			} else {
+				current = sessionDAOCtrl.getSession();
+			}
+			if (!withTotal) {
+				// one more row tells if there is a next page
+				List<T> rows = applyCriteria(current.createCriteria(this.inClass), criterionList)
+						.setFirstResult(start).setMaxResults(pageSize + 1).list();
+				boolean next = rows.size() > pageSize;
+				page = new Page<T>(next ? new ArrayList<T>(rows.subList(0, pageSize)) : rows, start, pageSize, -1, next);
+			} else if (isWindowCount(current) && (projectionList == null || !projectionList.isGrouped())) {
+				page = windowPage(current, start, pageSize);
+			} else {
+				long total = countRows(current);
+				List<T> rows = total <= start ? new ArrayList<T>()
+						: applyCriteria(current.createCriteria(this.inClass), criterionList).setFirstResult(start)
+								.setMaxResults(pageSize).list();
+				page = new Page<T>(rows, start, pageSize, total, start + rows.size() < total);
+			}
+			if (cached != null) {
+				cached.store(new Page<T>(new ArrayList<T>(page.getRows()), start, pageSize, page.getTotal(), page.hasNext()));
+			}
+		} catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "listPage", started);
+            handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "listPage", started);
+            throw e;
+        } finally {
+    		if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
+    			HibernateFactory.close(session);
+    		}
+        }
+		DaoMetrics.success(this.inClass, "listPage", started, page == null ? 0 : page.getRows().size());
+		return page;
+    }
+
+    /**
+     * The page with the total from COUNT(*) OVER(), computed before the limit is applied
+     */
+    private Page<T> windowPage(Session current, int start, int pageSize) {
+    	final boolean projected = projectionList != null && projectionList.getLength() > 0;
+    	ProjectionList columns = Projections.projectionList();
+    	columns.add(projected ? projectionList : Projections.id());
+    	columns.add(Projections.sqlProjection("count(*) over () as total_", new String[] { "total_" },
+    			new Type[] { StandardBasicTypes.LONG }));
+    	Criteria criteria = current.createCriteria(this.inClass);
+    	for (final Criterion c : criterionList) {
+    		criteria.add(c);
+    	}
+    	for (final Order order : orderList) {
+    		criteria.addOrder(order);
+    	}
+    	List<Object[]> found = criteria.setProjection(columns).setFirstResult(start).setMaxResults(pageSize).list();
+    	if (found.isEmpty()) {
+    		// past the last page there is no row to bring the total
+    		return new Page<T>(new ArrayList<T>(), start, pageSize, start == 0 ? 0 : countRows(current), false);
+    	}
+    	final long total = ((Number) found.get(0)[found.get(0).length - 1]).longValue();
+    	List<T> rows = new ArrayList<T>(found.size());
+    	if (projected) {
+    		for (final Object[] row : found) {
+    			rows.add((T) (row.length == 2 ? row[0] : Arrays.copyOf(row, row.length - 1)));
+    		}
+    	} else {
+    		List<Serializable> ids = new ArrayList<Serializable>(found.size());
+    		for (final Object[] row : found) {
+    			ids.add((Serializable) row[0]);
+    		}
+    		Map<Serializable, T> byId = loadByIds(current, ids);
+    		for (final Serializable id : ids) {
+    			T obj = byId.get(id);
+    			// deleted since the page was read
+    			if (obj != null) {
+    				rows.add(obj);
+    			}
+    		}
+    	}
+    	return new Page<T>(rows, start, pageSize, total, start + found.size() < total);
+    }
+
+    /**
+     * Rows matching the criterion list, without the order list (meaningless on a count,
+     * and refused by some databases)
+     */
+    private long countRows(Session current) {
+    	Criteria criteria = current.createCriteria(this.inClass).setProjection(Projections.rowCount());
+    	for (final Criterion c : criterionList) {
+    		criteria.add(c);
+    	}
+    	Number count = (Number) criteria.uniqueResult();
+    	return count == null ? 0 : count.longValue();
+    }
+
+    private static boolean isWindowCount(Session current) {
+    	SessionFactoryImplementor factory = (SessionFactoryImplementor) current.getSessionFactory();
+    	String configured = factory.getProperties().getProperty(WINDOW_COUNT);
+    	if (configured != null && !configured.trim().isEmpty()) {
+    		return Boolean.parseBoolean(configured.trim());
+    	}
+    	Dialect dialect = factory.getDialect();
+    	return dialect instanceof Oracle8iDialect || dialect instanceof PostgreSQL81Dialect
+    			|| dialect instanceof SQLServer2005Dialect;
+    }
+
     /**
      * Execute a SQL provided, and set the query as an entity represented by T class
      * @param strQuery
      * @return
      */    
     protected List<T> runQueryEntity(String strQuery) {
-		log.info(">> GenericSessionDAO.runQueryEntity()");
+		final long started = DaoMetrics.start();
 		List<T> list = null;
 		try {
 			Query query = null;
@@ -725,13 +2210,17 @@ public abstract class GenericSessionDAO<T> {
 			}
 		    list = query.list();
 		} catch (HibernateException e) {
+            DaoMetrics.failure(this.inClass, "runQueryEntity", started);
             handleException(e);
+        } catch (RuntimeException e) {
+            DaoMetrics.failure(this.inClass, "runQueryEntity", started);
+            throw e;
         } finally {
     		if (sessionDAOCtrl == null || !sessionDAOCtrl.isExecutingTransaction()){
     			HibernateFactory.close(session);
     		}
-    		log.info("<< GenericSessionDAO.runQueryEntity()");
         }
+		DaoMetrics.success(this.inClass, "runQueryEntity", started, list == null ? 0 : list.size());
 		return list;
     }
     
@@ -741,12 +2230,10 @@ public abstract class GenericSessionDAO<T> {
 	 * @param value
 	 */
 	public void setEq(String field, String value){
-	   	log.info(">> GenericSessionDAO.setEq");
 	   	if(field != null && value != null) {
 			Criterion criterio = Restrictions.eq(field, value);
 			criterionList.add(criterio);
 	   	}
-	   	log.info("<< GenericSessionDAO.setEq");
 	}
 
 	/**
@@ -755,12 +2242,10 @@ public abstract class GenericSessionDAO<T> {
 	 * @param value
 	 */
 	public void setEq(String field, Serializable value){
-	   	log.info(">> GenericSessionDAO.setEq");
 	   	if(field != null && value != null) {
 			Criterion criterio = Restrictions.eq(field, value);
 			criterionList.add(criterio);
 	   	}
-	   	log.info("<< GenericSessionDAO.setEq");
 	}
 
 	/**
@@ -768,11 +2253,9 @@ public abstract class GenericSessionDAO<T> {
      * @return
      */
     public void setOrderAsc(String nameToOrder){
-    	log.info(">>GenericSessionDAO.setOrderAsc");
     	if(nameToOrder != null) {
     		orderList.add(Order.asc(nameToOrder));
     	}
-		log.info("<<GenericSessionDAO.setOrderAsc");
 
 	}
 
@@ -781,11 +2264,9 @@ public abstract class GenericSessionDAO<T> {
      * @return
      */
     public void setOrderDesc(String nameToOrder){
-    	log.info(">>GenericSessionDAO.setOrderDesc");
     	if(nameToOrder != null) {
     		orderList.add(Order.desc(nameToOrder));
     	}
-		log.info("<<GenericSessionDAO.setOrderDesc");
 
 	}
 
@@ -796,12 +2277,10 @@ public abstract class GenericSessionDAO<T> {
 	 * @param matchMode
 	 */
 	public void setLike(String field, String value, MatchMode matchMode){
-    	log.info(">>GenericSessionDAO.setLike(String, String, MatchMode)");
     	if(field != null && value != null) {
 			Criterion criterio = Restrictions.ilike(field, value, matchMode );
 			criterionList.add(criterio);
     	}
-    	log.info(">>GenericSessionDAO.setLike(String, String, MatchMode)");
 	}
 
 	/**
@@ -810,12 +2289,10 @@ public abstract class GenericSessionDAO<T> {
 	 * @param valor
 	 */
 	public void setLike(String field, String value){
-    	log.info(">>GenericSessionDAO.setLike(String, String)");
     	if(field != null && value != null) {
     		Criterion criterio = Restrictions.ilike(field, value, MatchMode.ANYWHERE );
 			criterionList.add(criterio);
     	}
-    	log.info("<<GenericSessionDAO.setLike(String, String)");
 
 	}
 	
@@ -826,12 +2303,10 @@ public abstract class GenericSessionDAO<T> {
 	 * @param majorDate
 	 */
 	public void setBetween(String field, Date minorDate, Date majorDate){
-	   	log.info(">> GenericSessionDAO.setBetween()");
 	   	if(field != null && minorDate != null && majorDate != null) {
 			Criterion criterio = Restrictions.between(field, minorDate, majorDate);
 			criterionList.add(criterio);
 	   	}
-	   	log.info("<< GenericSessionDAO.setBetween()");
 	}
 	
 	/**
@@ -839,14 +2314,12 @@ public abstract class GenericSessionDAO<T> {
 	 * @param fields list
      */
     public void setProjectionFields(List<String> fieldsList){
-    	log.info(">>GenericSessionDAO.setProjectionFields");
     	
     	if (fieldsList != null){
         	for (final String field : fieldsList) {
         		projectionList.add(Projections.property(field), field);
 			}
         }
-		log.info("<<GenericSessionDAO.setProjectionFields");
 	}
 
     /**
@@ -865,51 +2338,282 @@ public abstract class GenericSessionDAO<T> {
      * @throws HibernateException
      */
     protected void startOperation() throws HibernateException {
-        log.debug(">> GenericSessionDAO.startOperation()");
-        session = HibernateFactory.openSession();
+        session = HibernateFactory.openSession(factoryName);
         tx = session.beginTransaction();
         executingTransaction = false; // just in case........
-        log.debug("<< GenericSessionDAO.startOperation()");
     }
     
+    /**
+     * Start a read: like {@link #startOperation()}, but on a replica when the
+     * factory of this DAO has a {@link ReplicaRouter}
+     * @throws HibernateException
+     */
+    protected void startReadOperation() throws HibernateException {
+        String readFactory = readFactoryName();
+        session = HibernateFactory.openSession(readFactory);
+        tx = session.beginTransaction();
+        readOnly(session, readFactory);
+        executingTransaction = false;
+    }
+
+    /**
+     * In read-only mode, the entities loaded by the session get no snapshot for dirty
+     * checking, it never flushes and its connection is set read-only (replicas and
+     * drivers may route or optimize on it), unless {@value #READ_ONLY_CONNECTIONS} is false.
+     * The session is only used by one read and closed, so nothing it loads could be written.
+     * @param readSession
+     * @param readFactory the factory it came from
+     */
+    private void readOnly(Session readSession, String readFactory) {
+    	if (!readOnly) {
+    		return;
+    	}
+    	readSession.setDefaultReadOnly(true);
+    	readSession.setFlushMode(FlushMode.MANUAL);
+    	if (isReadOnlyConnections(readFactory)) {
+    		// after the begin: drivers refuse the change in the middle of a transaction, not before its first statement
+    		readSession.doWork(connection -> connection.setReadOnly(true));
+    	}
+    }
+
+    private static boolean isReadOnlyConnections(String factory) {
+    	Properties properties = ((SessionFactoryImplementor) HibernateFactory.buildIfNeeded(factory)).getProperties();
+    	String configured = properties.getProperty(READ_ONLY_CONNECTIONS);
+    	if (configured != null && !configured.trim().isEmpty()) {
+    		return Boolean.parseBoolean(configured.trim());
+    	}
+    	// other pools may hand the connection over still read-only
+    	return PooledConnectionProvider.class.getName().equals(properties.getProperty(AvailableSettings.CONNECTION_PROVIDER));
+    }
+
+    /**
+     * @return the factory for the next read outside a SessionDAOCtrl transaction
+     */
+    private String readFactoryName() {
+    	ReplicaRouter router = ReplicaRouter.forPrimary(factoryName);
+    	return router == null ? factoryName : router.route(this.inClass);
+    }
+
+    /**
+     * Register a write on the entity of this DAO: at once when standalone (it is
+     * already committed), or on the commit of the SessionDAOCtrl transaction
+     */
+    private void written() {
+    	if (sessionDAOCtrl != null && sessionDAOCtrl.isExecutingTransaction()) {
+    		sessionDAOCtrl.written(this.inClass);
+    	} else {
+    		committed(factoryName, this.inClass);
+    	}
+    }
+
+    /**
+     * Things to do once a write on the entity is committed
+     * @param factoryName
+     * @param entity
+     */
+    static void committed(String factoryName, Class<?> entity) {
+    	ResultCache.invalidate(factoryName, entity);
+    	ReplicaRouter router = ReplicaRouter.forPrimary(factoryName);
+    	if (router != null) {
+    		router.written(entity);
+    	}
+    }
+
+    private boolean isCounted() {
+    	return RowCounter.forEntity(factoryName, this.inClass) != null;
+    }
+
+    /**
+     * Move the row counter of the entity, if enabled: at once when standalone (the
+     * write is already committed), or on the commit of the SessionDAOCtrl transaction
+     * @param delta rows inserted, negative for the deleted
+     */
+    private void counted(long delta) {
+    	if (delta == 0 || !isCounted()) {
+    		return;
+    	}
+    	if (sessionDAOCtrl != null && sessionDAOCtrl.isExecutingTransaction()) {
+    		sessionDAOCtrl.counted(this.inClass, delta);
+    	} else {
+    		RowCounter.add(factoryName, this.inClass, delta);
+    	}
+    }
+
+    /**
+     * Zero the row counter of the entity, if enabled, once the table is emptied
+     */
+    private void countReset() {
+    	if (!isCounted()) {
+    		return;
+    	}
+    	if (sessionDAOCtrl != null && sessionDAOCtrl.isExecutingTransaction()) {
+    		sessionDAOCtrl.countReset(this.inClass);
+    	} else {
+    		RowCounter.reset(factoryName, this.inClass);
+    	}
+    }
+
     // TODO: usando o sessionDAOCtrl precisa disso? Lembre-se que quem está "mandando é esse cara e ele já contém a sessão
     protected void openSession() throws HibernateException {
-        log.debug(">> GenericSessionDAO.openSession()");
-        session = HibernateFactory.openSession();
-        log.debug("<< GenericSessionDAO.openSession()");
+        session = HibernateFactory.openSession(factoryName);
     }
 
     // TODO: o mesmo comentário que o anterior.
     protected void closeSession(Session sessionParam) throws HibernateException {
-        log.debug(">> GenericSessionDAO.closeSession()");
         HibernateFactory.close(sessionParam);
         executingTransaction = false;
-        log.debug("<< GenericSessionDAO.closeSession()");
     }
     
     protected void beginTransaction() throws HibernateException {
-        log.debug(">> GenericSessionDAO.beginTransaction()");
         session.beginTransaction();
         executingTransaction = true;
-        log.debug("<< GenericSessionDAO.beginTransaction()");
     }
     
     protected void commitTransaction() throws HibernateException {
-        log.debug(">> GenericSessionDAO.commitTransaction()");
         session.getTransaction().commit();
         executingTransaction = false;
-        log.debug("<< GenericSessionDAO.commitTransaction()");
     }
 
     // TODO: fecho a sessão?????
     protected void rollbackTransaction() throws HibernateException {
-        log.debug(">> GenericSessionDAO.rollbackTransaction()");
         session.getTransaction().rollback();
         executingTransaction = false;
         HibernateFactory.close(session);
-        log.debug("<< GenericSessionDAO.rollbackTransaction()");
     }
 
+    /**
+     * Chunk size of the bulk writes: the one set on this DAO or,
+     * if none, the hibernate.jdbc.batch_size of the factory
+     * @return
+     */
+    public int getBatchSize() {
+    	if (batchSize > 0) {
+    		return batchSize;
+    	}
+    	int configured = ((SessionFactoryImplementor) HibernateFactory.buildIfNeeded(factoryName)).getSettings().getJdbcBatchSize();
+    	return configured > 1 ? configured : DEFAULT_BATCH_SIZE;
+    }
+
+    /**
+     * Define the chunk size of the bulk writes (0 to use the factory one)
+     * @param batchSize
+     */
+    public void setBatchSize(int batchSize) {
+    	this.batchSize = batchSize;
+    }
+
+    /**
+     * Rows sent on each JDBC batch by the stateless ingestion: the one set
+     * on this DAO or, if none, {@link #getBatchSize()}
+     * @return
+     */
+    public int getIngestBatchSize() {
+    	return ingestBatchSize > 0 ? ingestBatchSize : getBatchSize();
+    }
+
+    public void setIngestBatchSize(int ingestBatchSize) {
+    	this.ingestBatchSize = ingestBatchSize;
+    }
+
+    /**
+     * Rows committed at a time by the stateless ingestion
+     * @return
+     */
+    public int getIngestCommitInterval() {
+    	return ingestCommitInterval;
+    }
+
+    public void setIngestCommitInterval(int ingestCommitInterval) {
+    	this.ingestCommitInterval = ingestCommitInterval > 0 ? ingestCommitInterval : DEFAULT_COMMIT_INTERVAL;
+    }
+
+    /**
+     * JDBC fetch size of the streams: the one set on this DAO or, if none,
+     * the hibernate.jdbc.fetch_size of the factory
+     * @return
+     */
+    public int getFetchSize() {
+    	if (fetchSize != null) {
+    		return fetchSize;
+    	}
+    	Integer configured = ((SessionFactoryImplementor) HibernateFactory.buildIfNeeded(factoryName)).getSettings().getJdbcFetchSize();
+    	return configured != null ? configured : DEFAULT_FETCH_SIZE;
+    }
+
+    /**
+     * Define the JDBC fetch size of the streams. MySQL Connector/J only streams rows
+     * with Integer.MIN_VALUE, or with a positive size and useCursorFetch=true on the URL.
+     * @param fetchSize
+     */
+    public void setFetchSize(Integer fetchSize) {
+    	this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Keep the rows of the entity counted in memory, for rowsCount(EXACT_COUNTER);
+     * shared with the other DAOs of the entity, see {@link RowCounter}
+     * @return the counter
+     */
+    public RowCounter enableRowCounter() {
+    	return RowCounter.enable(factoryName, this.inClass);
+    }
+
+    /**
+     * Stop counting the rows of the entity, for every DAO of it
+     */
+    public void disableRowCounter() {
+    	RowCounter.disable(factoryName, this.inClass);
+    }
+
+    /**
+     * @return true if the reads outside a SessionDAOCtrl transaction are read-only
+     */
+    public boolean isReadOnly() {
+    	return readOnly;
+    }
+
+    /**
+     * Run find(), findAll(), findByCriteria(), rowsCount(), listForPagination() and the streams
+     * on read-only sessions (the default) or, with false, on plain read-write ones.
+     * Under a SessionDAOCtrl transaction they always use the session of the controller.
+     * @param readOnly
+     */
+    public void setReadOnly(boolean readOnly) {
+    	this.readOnly = readOnly;
+    }
+
+	/**
+	 * Cache the results of findByCriteria(), findAllByCriteria() and listForPagination(),
+	 * shared with the other DAOs of the entity; see {@link ResultCache}
+	 */
+	public void enableResultCache() {
+		enableResultCache(ResultCache.DEFAULT_MAX_ENTRIES, 0);
+	}
+
+	/**
+	 * @param maxEntries results kept, 0 for unbounded; used by the first DAO of the entity to enable it
+	 * @param ttlSeconds time to live of the results, 0 for none
+	 */
+	public void enableResultCache(int maxEntries, int ttlSeconds) {
+		resultCache = ResultCache.enable(factoryName, this.inClass, maxEntries, TimeUnit.SECONDS.toMillis(ttlSeconds));
+	}
+
+	public void disableResultCache() {
+		resultCache = null;
+	}
+
+	public boolean isResultCacheEnabled() {
+		return resultCache != null;
+	}
+
+	/**
+	 * @return the hits, misses and size of the result cache of the entity, or null if not enabled
+	 */
+	public CacheStatistics getResultCacheStatistics() {
+		ResultCache shared = ResultCache.forEntity(factoryName, this.inClass);
+		return shared == null ? null : shared.getStatistics();
+	}
+
     /**
      * just return the current session
      * @return
@@ -918,6 +2622,20 @@ public abstract class GenericSessionDAO<T> {
 		return session;
 	}
 
+	/**
+	 * @return the entity name, identifier and HQL shared by the DAOs of the entity
+	 */
+	public EntityMetadata getEntityMetadata() {
+		return metadata;
+	}
+
+	/**
+	 * @return the name of the factory this DAO works on
+	 */
+	public String getFactoryName() {
+		return factoryName;
+	}
+
 	public boolean isExecutingTransaction() {
 		return executingTransaction;
 	}
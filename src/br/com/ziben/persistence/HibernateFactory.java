@@ -17,26 +17,54 @@ along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
 package br.com.ziben.persistence;
 
 import java.io.File;
+import java.sql.Connection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.service.ServiceRegistry;
 
+import br.com.ziben.persistence.cache.CacheStatistics;
+import br.com.ziben.persistence.cache.LocalRegionFactory;
+import br.com.ziben.persistence.pool.PoolMetrics;
+import br.com.ziben.persistence.pool.PooledConnectionProvider;
+import br.com.ziben.persistence.sql.SlowQueryLog;
+import br.com.ziben.persistence.sql.TimedConnectionProvider;
+
 /**
- * Class for things about Hibernate Factoring and sessions
+ * Class for things about Hibernate Factoring and sessions.<br>
+ * Besides the default factory, any number of named factories can be used, each one
+ * with its own configuration file and connection pool (e.g. OLTP x reporting):
+ * the file of a factory named "reporting" comes from the system property
+ * "persistence.configuration.reporting", or else "./reporting.cfg.xml".
  * @author ccardozo
  *
  */
 public class HibernateFactory {
 	
-    private static SessionFactory sessionFactory;
-    private static ServiceRegistry serviceRegistry;
+	/** name of the factory configured by the "persistence.configuration" property */
+	public static final String DEFAULT = "default";
+	public static final String CONFIGURATION_PROPERTY = "persistence.configuration";
+
     private static Logger log = Logger.getLogger(HibernateFactory.class);
+    private static final ConcurrentMap<String, NamedFactory> factories = new ConcurrentHashMap<String, NamedFactory>();
+    private static final NamedFactory defaultFactory = named(DEFAULT);
 
     /**
      * Build a new Singleton SessionFactory
@@ -44,62 +72,179 @@ public class HibernateFactory {
      * @throws HibernateException
      */
     public static SessionFactory buildSessionFactory() throws HibernateException {
-    	
-        if (sessionFactory != null) {
-        	log.info(">> HibernateFactory.buildSessionFactory()->closeFactory()");
-            closeFactory();
-        }
-        return configureSessionFactory();
+    	return defaultFactory.rebuild();
+    }
+
+    /**
+     * Build (again) the named SessionFactory
+     * @param name
+     * @return a session factory
+     * @throws HibernateException
+     */
+    public static SessionFactory buildSessionFactory(String name) throws HibernateException {
+    	return named(name).rebuild();
     }
 
     /**
-     * Build a SessionFactory, if not created.
+     * Build a SessionFactory, if not created. Only one thread builds it, the
+     * others wait for it; once built this is a single volatile read.
+     * @throws DataAccessLayerException if the factory can not be built
      */
     public static SessionFactory buildIfNeeded() throws DataAccessLayerException {
-    	
-        if (sessionFactory != null) {
-        	log.info(">> HibernateFactory.buildIfNeeded() sessionFactory != null");
-            return sessionFactory;
-        }
-        
-        try {
-        	log.info(">> HibernateFactory.buildIfNeeded() return configureSessionFactory()");
-            return configureSessionFactory();
-        } catch (HibernateException e) {
-            throw new DataAccessLayerException(e);
-        }
+        return defaultFactory.buildIfNeeded();
     }
-    
+
+    /**
+     * Build the named SessionFactory, if not created
+     * @param name
+     * @throws DataAccessLayerException if the factory can not be built
+     */
+    public static SessionFactory buildIfNeeded(String name) throws DataAccessLayerException {
+        return named(name).buildIfNeeded();
+    }
+
+    /**
+     * Define the configuration file of a factory, taking precedence over the system property.
+     * It takes effect on the next build of the factory.
+     * @param name
+     * @param configFile
+     */
+    public static void configure(String name, File configFile) {
+        named(name).configFile = configFile;
+    }
+
     public static SessionFactory getSessionFactory() {
-    	log.info(">> HibernateFactory.getSessionFactory() return sessionFactory");
-        return sessionFactory;
+        return defaultFactory.sessionFactory;
+    }
+
+    /**
+     * @param name
+     * @return the named factory, or null if not built
+     */
+    public static SessionFactory getSessionFactory(String name) {
+        NamedFactory factory = factories.get(name);
+        return factory == null ? null : factory.sessionFactory;
+    }
+
+    /**
+     * @return the names of the factories built or configured
+     */
+    public static Set<String> getFactoryNames() {
+        return new TreeSet<String>(factories.keySet());
     }
-    
 
     public static Session openSession() throws HibernateException {
-        buildIfNeeded();
-    	log.info(">> HibernateFactory.openSession(): return sessionFactory.openSession()");
-        return sessionFactory.openSession();
+        return defaultFactory.buildIfNeeded().openSession();
+    }
+
+    public static Session openSession(String name) throws HibernateException {
+        return named(name).buildIfNeeded().openSession();
+    }
+
+    /**
+     * Open a stateless session (no first-level cache, no dirty checking),
+     * suited for append-only bulk ingestion
+     * @return a new stateless session with its own connection
+     * @throws HibernateException
+     */
+    public static StatelessSession openStatelessSession() throws HibernateException {
+        return defaultFactory.buildIfNeeded().openStatelessSession();
+    }
+
+    public static StatelessSession openStatelessSession(String name) throws HibernateException {
+        return named(name).buildIfNeeded().openStatelessSession();
+    }
+
+    /**
+     * Open a stateless session over a connection already in use, so its
+     * work takes part on the transaction that owns the connection
+     * @param connection
+     * @return a new stateless session
+     * @throws HibernateException
+     */
+    public static StatelessSession openStatelessSession(Connection connection) throws HibernateException {
+        return defaultFactory.buildIfNeeded().openStatelessSession(connection);
+    }
+
+    public static StatelessSession openStatelessSession(String name, Connection connection) throws HibernateException {
+        return named(name).buildIfNeeded().openStatelessSession(connection);
+    }
+
+    /**
+     * State of the connection pool, when the factory uses the PooledConnectionProvider
+     * @return the pool metrics, or null if the connections come from elsewhere (JNDI)
+     */
+    public static PoolMetrics getPoolMetrics() {
+        return defaultFactory.getPoolMetrics();
+    }
+
+    public static PoolMetrics getPoolMetrics(String name) {
+        NamedFactory factory = factories.get(name);
+        return factory == null ? null : factory.getPoolMetrics();
+    }
+
+    /**
+     * Timings of the statements run by the factory, whatever its ConnectionProvider
+     * @return the slow query log, or null if timing is off
+     */
+    public static SlowQueryLog getSlowQueryLog() {
+        return defaultFactory.getSlowQueryLog();
+    }
+
+    public static SlowQueryLog getSlowQueryLog(String name) {
+        NamedFactory factory = factories.get(name);
+        return factory == null ? null : factory.getSlowQueryLog();
+    }
+
+    /**
+     * Counters of the second-level cache regions, when the factory uses the LocalRegionFactory
+     * @return the statistics of every region, empty if the cache is elsewhere or disabled
+     */
+    public static List<CacheStatistics> getCacheStatistics() {
+        return defaultFactory.getCacheStatistics();
+    }
+
+    public static List<CacheStatistics> getCacheStatistics(String name) {
+        NamedFactory factory = factories.get(name);
+        return factory == null ? Collections.<CacheStatistics> emptyList() : factory.getCacheStatistics();
     }
 
     public static void closeFactory() {
-        if (sessionFactory != null) {
+        defaultFactory.close();
+    }
+
+    public static void closeFactory(String name) {
+        NamedFactory factory = factories.get(name);
+        if (factory != null) {
+            factory.close();
+        }
+    }
+
+    /**
+     * Close every factory built
+     */
+    public static void closeAll() {
+        for (final NamedFactory factory : factories.values()) {
+            factory.close();
+        }
+    }
+
+    public static void close(Session session) {
+        if (session != null) {
             try {
-            	log.info(">> HibernateFactory.closeFactory() sessionFactory != null; sessionFactory.close()");
-                sessionFactory.close();
+                session.close();
             } catch (HibernateException ignored) {
-                log.error("Impossible to close the SessionFactory", ignored);
+                log.error("Impossible to close a Session", ignored);
             }
         }
     }
 
-    public static void close(Session session) {
+    public static void close(StatelessSession session) {
         if (session != null) {
             try {
-            	log.info(">> HibernateFactoryclose() session.close()");
                 session.close();
             } catch (HibernateException ignored) {
-                log.error("Impossible to close a Session", ignored);
+                log.error("Impossible to close a StatelessSession", ignored);
             }
         }
     }
@@ -107,7 +252,6 @@ public class HibernateFactory {
     public static void rollback(Transaction tx) {
         try {
             if (tx != null) {
-            	log.info(">> rollback(): tx.rollback()");
                 tx.rollback();
             }
         } catch (HibernateException ignored) {
@@ -115,35 +259,212 @@ public class HibernateFactory {
         }
     }
     
+    private static NamedFactory named(String name) {
+        if (name == null) {
+            return defaultFactory;
+        }
+        NamedFactory factory = factories.get(name);
+        if (factory == null) {
+            NamedFactory created = new NamedFactory(name);
+            factory = factories.putIfAbsent(name, created);
+            if (factory == null) {
+                factory = created;
+            }
+        }
+        return factory;
+    }
+
     /**
-     * Configure a session factory using a configuration file (hibernate.cfg.xml).
-     * If you not provider a path by this file, it will try find where the app starts.
-     * So, configure the environment variable "persistence.configuration" point to it.
-     * @return
-     * @throws HibernateException
+     * Use the PooledConnectionProvider when the connections come from the raw
+     * hibernate.connection.* properties, instead of the Hibernate built-in pool
+     * (not meant for production); a datasource or a provider configured wins.
+     * @param configuration
+     * @param name of the factory, default name of its pool
+     */
+    private static void applyConnectionPool(Configuration configuration, String name) {
+        if (configuration.getProperty(AvailableSettings.DATASOURCE) == null
+                && configuration.getProperty(AvailableSettings.CONNECTION_PROVIDER) == null
+                && Boolean.parseBoolean(configuration.getProperties().getProperty(PooledConnectionProvider.ENABLED, "true"))) {
+            log.debug(">> configureSessionFactory(): using " + PooledConnectionProvider.class.getName());
+            configuration.setProperty(AvailableSettings.CONNECTION_PROVIDER, PooledConnectionProvider.class.getName());
+            if (configuration.getProperty(PooledConnectionProvider.NAME) == null) {
+                configuration.setProperty(PooledConnectionProvider.NAME, "sensus-" + name);
+            }
+        }
+    }
+
+    /**
+     * Use the LocalRegionFactory as second-level cache when the second-level cache
+     * is not disabled and no other region factory is configured.
+     * @param configuration
+     */
+    private static void applyRegionFactory(Configuration configuration) {
+        if (configuration.getProperty(AvailableSettings.CACHE_REGION_FACTORY) == null
+                && Boolean.parseBoolean(configuration.getProperties().getProperty(AvailableSettings.USE_SECOND_LEVEL_CACHE, "true"))) {
+            log.debug(">> configureSessionFactory(): using " + LocalRegionFactory.class.getName());
+            configuration.setProperty(AvailableSettings.CACHE_REGION_FACTORY, LocalRegionFactory.class.getName());
+        }
+    }
+
+    /**
+     * One SessionFactory, its ServiceRegistry (and pool) and the lock guarding its build
      */
-    private static SessionFactory configureSessionFactory() throws HibernateException {
-		log.info(">> HibernateFactory.configureSessionFactory()");
-
-		try {
-			String nomeArquivo = System.getProperty("persistence.configuration");
-			if (nomeArquivo == null) {
-				nomeArquivo = "./" + "hibernate.cfg.xml";
-				log.debug(">> configureSessionFactory(): configuring the factory from: " + nomeArquivo);
-			}
-			log.debug(">> configureSessionFactory() configuration file: " + nomeArquivo);
-			File configFile = new File(nomeArquivo);
-
-			Configuration configuration = new Configuration();
-			configuration.configure(configFile);
-			serviceRegistry = new StandardServiceRegistryBuilder().applySettings(configuration.getProperties()).build();
-			sessionFactory = configuration.buildSessionFactory(serviceRegistry);
-		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			log.info("<< HibernateFactory.configureSessionFactory()");
-		}
-
-        return sessionFactory;
+    private static final class NamedFactory {
+
+        private final String name;
+        // volatile: read without lock on the fast path, written once under the lock
+        private volatile SessionFactory sessionFactory;
+        private ServiceRegistry serviceRegistry;
+        private volatile File configFile;
+        // a lock rather than synchronized: virtual threads waiting for the build do not pin their carriers
+        private final ReentrantLock buildLock = new ReentrantLock();
+
+        NamedFactory(String name) {
+            this.name = name;
+        }
+
+        SessionFactory buildIfNeeded() throws DataAccessLayerException {
+            SessionFactory factory = sessionFactory;
+            if (factory != null) {
+                return factory;
+            }
+            buildLock.lock();
+            try {
+                factory = sessionFactory;
+                if (factory != null) {
+                    return factory;
+                }
+                return configureSessionFactory();
+            } catch (HibernateException e) {
+                throw new DataAccessLayerException(e);
+            } finally {
+                buildLock.unlock();
+            }
+        }
+
+        SessionFactory rebuild() throws HibernateException {
+            buildLock.lock();
+            try {
+                if (sessionFactory != null) {
+                    log.info(">> HibernateFactory.buildSessionFactory(" + name + ")->closeFactory()");
+                    close();
+                }
+                return configureSessionFactory();
+            } finally {
+                buildLock.unlock();
+            }
+        }
+
+        void close() {
+            buildLock.lock();
+            try {
+                if (sessionFactory != null) {
+                    try {
+                        log.info(">> HibernateFactory.closeFactory(" + name + ") sessionFactory.close()");
+                        sessionFactory.close();
+                    } catch (HibernateException ignored) {
+                        log.error("Impossible to close the SessionFactory " + name, ignored);
+                    } finally {
+                        sessionFactory = null;
+                        // stops the services, the connection pool among them
+                        StandardServiceRegistryBuilder.destroy(serviceRegistry);
+                        serviceRegistry = null;
+                    }
+                }
+            } finally {
+                buildLock.unlock();
+            }
+        }
+
+        PoolMetrics getPoolMetrics() {
+            SessionFactory factory = sessionFactory;
+            if (factory == null) {
+                return null;
+            }
+            ConnectionProvider provider = ((SessionFactoryImplementor) factory).getServiceRegistry().getService(ConnectionProvider.class);
+            return provider.isUnwrappableAs(PooledConnectionProvider.class)
+                    ? provider.unwrap(PooledConnectionProvider.class).getMetrics() : null;
+        }
+
+        SlowQueryLog getSlowQueryLog() {
+            SessionFactory factory = sessionFactory;
+            if (factory == null) {
+                return null;
+            }
+            ConnectionProvider provider = ((SessionFactoryImplementor) factory).getServiceRegistry().getService(ConnectionProvider.class);
+            return provider instanceof TimedConnectionProvider ? ((TimedConnectionProvider) provider).getSlowQueryLog() : null;
+        }
+
+        List<CacheStatistics> getCacheStatistics() {
+            SessionFactory factory = sessionFactory;
+            if (factory == null) {
+                return Collections.emptyList();
+            }
+            RegionFactory regionFactory = ((SessionFactoryImplementor) factory).getSettings().getRegionFactory();
+            return regionFactory instanceof LocalRegionFactory ? ((LocalRegionFactory) regionFactory).getStatistics()
+                    : Collections.<CacheStatistics> emptyList();
+        }
+
+        /**
+         * The file set by {@link HibernateFactory#configure(String, File)}, or the one on the
+         * system property ("persistence.configuration" for the default factory and
+         * "persistence.configuration.name" for the others), or else ./hibernate.cfg.xml
+         * (./name.cfg.xml for the others), where the app starts.
+         */
+        private File resolveConfigFile() {
+            if (configFile != null) {
+                return configFile;
+            }
+            boolean isDefault = DEFAULT.equals(name);
+            String nomeArquivo = System.getProperty(isDefault ? CONFIGURATION_PROPERTY : CONFIGURATION_PROPERTY + "." + name);
+            if (nomeArquivo == null) {
+                nomeArquivo = "./" + (isDefault ? "hibernate" : name) + ".cfg.xml";
+                log.debug(">> configureSessionFactory(): configuring the factory from: " + nomeArquivo);
+            }
+            return new File(nomeArquivo);
+        }
+
+        /**
+         * Configure a session factory using a configuration file (hibernate.cfg.xml).
+         * If you not provider a path by this file, it will try find where the app starts.
+         * So, configure the environment variable "persistence.configuration" point to it.
+         * @return
+         * @throws HibernateException
+         */
+        private SessionFactory configureSessionFactory() throws HibernateException {
+            log.info(">> HibernateFactory.configureSessionFactory(" + name + ")");
+
+            ServiceRegistry registry = null;
+            try {
+                File configFile = resolveConfigFile();
+                log.debug(">> configureSessionFactory() configuration file: " + configFile);
+
+                Configuration configuration = new Configuration();
+                configuration.configure(configFile);
+                applyConnectionPool(configuration, name);
+                applyRegionFactory(configuration);
+                StandardServiceRegistryBuilder builder = new StandardServiceRegistryBuilder().applySettings(configuration.getProperties());
+                // around whatever provider Hibernate picks: the pool, a datasource or another one
+                SlowQueryLog slowQueryLog = SlowQueryLog.configure("sensus-" + name, configuration.getProperties());
+                if (slowQueryLog != null) {
+                    builder.addInitiator(new TimedConnectionProvider.Initiator(slowQueryLog));
+                }
+                registry = builder.build();
+                SessionFactory factory = configuration.buildSessionFactory(registry);
+                // published only when complete
+                serviceRegistry = registry;
+                sessionFactory = factory;
+                return factory;
+            } catch (RuntimeException e) {
+                log.error("Impossible to build the SessionFactory " + name, e);
+                if (registry != null) {
+                    StandardServiceRegistryBuilder.destroy(registry);
+                }
+                throw e instanceof HibernateException ? (HibernateException) e
+                        : new HibernateException("Impossible to build the SessionFactory " + name, e);
+            } finally {
+                log.info("<< HibernateFactory.configureSessionFactory(" + name + ")");
+            }
+        }
     }
 }
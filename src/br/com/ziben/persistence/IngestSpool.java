@@ -0,0 +1,394 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+import org.hibernate.PessimisticLockException;
+import org.hibernate.QueryTimeoutException;
+import org.hibernate.exception.JDBCConnectionException;
+import org.hibernate.exception.LockAcquisitionException;
+
+import br.com.ziben.persistence.metrics.LatencyHistogram;
+import br.com.ziben.persistence.spool.Journal;
+import br.com.ziben.persistence.spool.SerializationCodec;
+import br.com.ziben.persistence.spool.SpoolCodec;
+
+/**
+ * Durable ingestion spool: {@link #append(Object)} writes the entity on a memory-mapped
+ * {@link Journal}, at memory speed whatever the database is doing, and a drainer thread
+ * replays the journal into the database with insertStream (or upsertStream), a batch per
+ * transaction, moving the checkpoint after each commit. While the database is down (a
+ * connection, timeout or lock failure) the drainer retries with a growing pause and the
+ * journal grows on disk. A batch the database refuses otherwise (a constraint, a bad
+ * value) is split until the record refused is alone; that one goes to the
+ * {@value #DEAD_LETTER} file of the directory (each record as its length and the bytes of
+ * the codec) and the drain goes on after it.<br>
+ * After a crash the journal is reopened from the checkpoint: the records committed but not
+ * checkpointed are replayed, so delivery is at least once. Use upsert with assigned ids
+ * to make the replay idempotent: inserted again, they end up as dead letters.<br>
+ * The records survive the crash of the process; call {@link #force()} to also survive the
+ * crash of the machine.
+ * @author ccardozo
+ *
+ * @param <T> the entity
+ */
+public class IngestSpool<T> implements AutoCloseable {
+
+	private static final Logger log = Logger.getLogger(IngestSpool.class);
+
+	public static final int DEFAULT_DRAIN_BATCH = 1000;
+	public static final String DEAD_LETTER = "dead-letter";
+	private static final long IDLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long MIN_BACKOFF_MILLIS = 100;
+	private static final long MAX_BACKOFF_MILLIS = 30000;
+
+	private final Supplier<? extends GenericSessionDAO<T>> daos;
+	private final Journal journal;
+	private final SpoolCodec<T> codec;
+	private final int drainBatch;
+	private final boolean upsert;
+	private final String name;
+
+	private final Thread drainer;
+	private volatile boolean drainerIdle;
+	private volatile boolean closed;
+
+	private final LongAdder appended = new LongAdder();
+	private final LongAdder drained = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder undecodable = new LongAdder();
+	private final LongAdder deadLetters = new LongAdder();
+	private final LatencyHistogram drainTime = new LatencyHistogram();
+
+	/**
+	 * Spool of Serializable entities, inserted in batches of {@value #DEFAULT_DRAIN_BATCH}
+	 * @param daos a new DAO for each batch
+	 * @param directory of the journal
+	 * @throws DataAccessLayerException if the journal can not be opened
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public IngestSpool(Supplier<? extends GenericSessionDAO<T>> daos, File directory) {
+		this(daos, directory, (SpoolCodec<T>) new SerializationCodec(), Journal.DEFAULT_SEGMENT_SIZE, DEFAULT_DRAIN_BATCH, false);
+	}
+
+	/**
+	 * @param daos a new DAO for each batch
+	 * @param directory of the journal
+	 * @param codec of the records
+	 * @param segmentSize bytes of the journal files
+	 * @param drainBatch records per transaction
+	 * @param upsert update the rows already on the database, instead of inserting all
+	 * @throws DataAccessLayerException if the journal can not be opened
+	 */
+	public IngestSpool(Supplier<? extends GenericSessionDAO<T>> daos, File directory, SpoolCodec<T> codec,
+			int segmentSize, int drainBatch, boolean upsert) {
+		this.daos = daos;
+		this.codec = codec;
+		this.drainBatch = drainBatch;
+		this.upsert = upsert;
+		this.name = daos.get().getEntityMetadata().getEntityName();
+		try {
+			this.journal = Journal.open(directory, segmentSize);
+		} catch (IOException e) {
+			throw new DataAccessLayerException("Can not open the spool of " + name + " on " + directory, e);
+		}
+		this.drainer = new Thread(this::runDrainer, "sensus-spool-" + name);
+		this.drainer.setDaemon(true);
+		this.drainer.start();
+	}
+
+	/**
+	 * Write the entity on the journal, to be inserted later
+	 * @param entity
+	 * @throws DataAccessLayerException if the journal can not take it (disk full, closed)
+	 */
+	public void append(T entity) {
+		try {
+			journal.append(codec.encode(entity));
+		} catch (IOException e) {
+			throw new DataAccessLayerException("Can not append to the spool of " + name, e);
+		}
+		appended.increment();
+		if (drainerIdle) {
+			LockSupport.unpark(drainer);
+		}
+	}
+
+	public void appendAll(Collection<? extends T> entities) {
+		for (final T entity : entities) {
+			append(entity);
+		}
+	}
+
+	private void runDrainer() {
+		Journal.Position position = journal.getCheckpoint();
+		long backoff = MIN_BACKOFF_MILLIS;
+		// halved on each refusal to isolate the record the database refuses, until it is
+		// found or the end of the batch refused is reached
+		int limit = drainBatch;
+		Journal.Position refusedEnd = null;
+		while (!closed) {
+			Journal.Batch batch = journal.read(position, limit);
+			if (batch.isEmpty()) {
+				if (!batch.getEnd().equals(position)) {
+					// only segment ends crossed
+					checkpoint(batch.getEnd());
+					position = batch.getEnd();
+					continue;
+				}
+				limit = drainBatch;
+				refusedEnd = null;
+				drainerIdle = true;
+				if (journal.getEnd().equals(position)) {
+					LockSupport.parkNanos(this, IDLE_POLL_NANOS);
+				}
+				drainerIdle = false;
+				continue;
+			}
+			Outcome outcome = write(batch.getRecords());
+			boolean isolated = outcome == Outcome.REFUSED && batch.getRecords().size() == 1
+					&& deadLetter(batch.getRecords().get(0));
+			if (outcome == Outcome.WRITTEN || isolated) {
+				checkpoint(batch.getEnd());
+				position = batch.getEnd();
+				backoff = MIN_BACKOFF_MILLIS;
+				if (isolated || position.equals(refusedEnd)) {
+					limit = drainBatch;
+					refusedEnd = null;
+				}
+			} else if (outcome == Outcome.REFUSED && batch.getRecords().size() > 1) {
+				if (refusedEnd == null) {
+					refusedEnd = batch.getEnd();
+				}
+				limit = Math.max(1, batch.getRecords().size() / 2);
+			} else {
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(backoff));
+				backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+			}
+		}
+	}
+
+	/**
+	 * Insert the records in one transaction; decoded on every attempt, so a failed one
+	 * leaves nothing (generated ids) on the entities of the next
+	 * @return whether they were written, refused or are to be retried
+	 */
+	private Outcome write(List<byte[]> records) {
+		List<T> entities = new ArrayList<T>(records.size());
+		for (final byte[] record : records) {
+			try {
+				entities.add(codec.decode(record));
+			} catch (RuntimeException e) {
+				undecodable.increment();
+				log.error("Spool of " + name + ": record of " + record.length + " bytes can not be decoded, skipped", e);
+			}
+		}
+		final long started = System.nanoTime();
+		try {
+			GenericSessionDAO<T> dao = daos.get();
+			dao.setIngestCommitInterval(Math.max(1, entities.size()));
+			if (upsert) {
+				dao.upsertStream(entities);
+			} else {
+				dao.insertStream(entities);
+			}
+			drained.add(entities.size());
+			return Outcome.WRITTEN;
+		} catch (RuntimeException e) {
+			failures.increment();
+			if (isTransient(e)) {
+				log.warn("Spool of " + name + ": batch of " + entities.size() + " failed, " + journal.getBacklogBytes()
+						+ " bytes waiting: " + e);
+				return Outcome.RETRY;
+			}
+			log.warn("Spool of " + name + ": batch of " + entities.size() + " refused: " + e);
+			return Outcome.REFUSED;
+		} finally {
+			drainTime.record(System.nanoTime() - started);
+		}
+	}
+
+	/**
+	 * @return whether the failure may go away by itself: the connection, a timeout or a lock
+	 */
+	private static boolean isTransient(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof JDBCConnectionException || cause instanceof LockAcquisitionException
+					|| cause instanceof PessimisticLockException || cause instanceof QueryTimeoutException
+					|| cause instanceof SQLTransientException || cause instanceof SQLRecoverableException
+					|| cause instanceof SQLNonTransientConnectionException || cause instanceof IOException) {
+				return true;
+			}
+			if (cause instanceof SQLException) {
+				String state = ((SQLException) cause).getSQLState();
+				// connection, transaction rollback (deadlock, serialization), operator intervention
+				if (state != null && (state.startsWith("08") || state.startsWith("40") || state.startsWith("57"))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Move a record the database refuses to the dead letter file
+	 * @return false if the file could not take it (the record is retried)
+	 */
+	private boolean deadLetter(byte[] record) {
+		File file = new File(journal.getDirectory(), DEAD_LETTER);
+		try {
+			Files.write(file.toPath(), ByteBuffer.allocate(4 + record.length).putInt(record.length).put(record).array(),
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+		} catch (IOException e) {
+			log.error("Spool of " + name + ": record refused by the database, and not saved on " + file, e);
+			return false;
+		}
+		deadLetters.increment();
+		log.error("Spool of " + name + ": record of " + record.length + " bytes refused by the database, moved to " + file);
+		return true;
+	}
+
+	private void checkpoint(Journal.Position position) {
+		try {
+			journal.checkpoint(position);
+		} catch (IOException e) {
+			// the records will be replayed on the next open
+			log.error("Spool of " + name + ": checkpoint " + position + " not saved", e);
+		}
+	}
+
+	/**
+	 * Write the journal pages to the disk, so the records survive a crash of the machine
+	 */
+	public void force() {
+		journal.force();
+	}
+
+	/**
+	 * Wait for the drainer to write everything appended so far
+	 * @param timeout
+	 * @param unit
+	 * @return false if there was still something to write after the timeout
+	 */
+	public boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (journal.getBacklogBytes() > 0) {
+			if (System.nanoTime() >= deadline) {
+				return false;
+			}
+			LockSupport.unpark(drainer);
+			Thread.sleep(10);
+		}
+		return true;
+	}
+
+	/**
+	 * Stop the drainer after its current batch and close the journal; what is not
+	 * written stays on it for the next spool opened on the directory
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		LockSupport.unpark(drainer);
+		boolean interrupted = false;
+		while (drainer.isAlive()) {
+			try {
+				drainer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		journal.close();
+		if (journal.getBacklogBytes() > 0) {
+			log.info("Spool of " + name + " closed with " + journal.getBacklogBytes() + " bytes to write");
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** @return records appended by this spool */
+	public long getAppended() {
+		return appended.sum();
+	}
+
+	/** @return records written on the database, replays included */
+	public long getDrained() {
+		return drained.sum();
+	}
+
+	/** @return batches that failed, retried or split */
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/** @return records skipped for not decoding */
+	public long getUndecodable() {
+		return undecodable.sum();
+	}
+
+	/** @return records refused by the database, moved to the dead letter file */
+	public long getDeadLetters() {
+		return deadLetters.sum();
+	}
+
+	/** @return bytes of the journal not yet written on the database */
+	public long getBacklogBytes() {
+		return journal.getBacklogBytes();
+	}
+
+	/** @return time to write a batch, in nanoseconds */
+	public LatencyHistogram getDrainTime() {
+		return drainTime;
+	}
+
+	@Override
+	public String toString() {
+		return "IngestSpool[" + name + " appended=" + getAppended() + ", drained=" + getDrained() + ", failures="
+				+ getFailures() + ", deadLetters=" + getDeadLetters() + ", backlog=" + getBacklogBytes() + " bytes, drain p50="
+				+ drainTime.getPercentile(50) / 1000 + "us p99=" + drainTime.getPercentile(99) / 1000 + "us]";
+	}
+
+	private enum Outcome {
+		WRITTEN,
+		/** by the database, for the data */
+		REFUSED,
+		/** the database is unreachable or busy */
+		RETRY
+	}
+}
@@ -0,0 +1,298 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Position of a keyset (seek) pagination: the values of the ordering keys
+ * on the last row of a page. It can travel to the client as an opaque
+ * string through {@link #encode()} and come back by {@link #decode(String)}.<br>
+ * The string holds the key names and their values in a fixed binary layout, only of
+ * numbers, strings, characters, booleans and dates, signed with an HMAC-SHA256: a
+ * cursor not made by {@link #encode()} is refused. The HMAC key is the system property
+ * {@value #SECRET} (the same on every node that serves the pages), or else a random
+ * one, and then the cursors are only valid on the JVM that made them.
+ * @author ccardozo
+ *
+ */
+public final class KeysetCursor implements Serializable {
+
+	private static final long serialVersionUID = 6393520768373406815L;
+
+	/** system property with the secret signing the cursors */
+	public static final String SECRET = "persistence.keyset_secret";
+
+	private static final byte VERSION = 1;
+	private static final String ALGORITHM = "HmacSHA256";
+	private static final int MAC_LENGTH = 32;
+
+	private static final byte LONG = 'J';
+	private static final byte INTEGER = 'I';
+	private static final byte SHORT = 'S';
+	private static final byte BYTE = 'B';
+	private static final byte DOUBLE = 'D';
+	private static final byte FLOAT = 'F';
+	private static final byte BIG_DECIMAL = 'N';
+	private static final byte BIG_INTEGER = 'G';
+	private static final byte STRING = 'T';
+	private static final byte CHARACTER = 'C';
+	private static final byte BOOLEAN = 'Z';
+	private static final byte DATE = 'd';
+	private static final byte TIMESTAMP = 't';
+	private static final byte SQL_DATE = 'q';
+	private static final byte SQL_TIME = 'h';
+
+	private final String[] keys;
+	private final Object[] values;
+
+	KeysetCursor(String[] keys, Object[] values) {
+		this.keys = keys;
+		this.values = values;
+	}
+
+	String[] getKeys() {
+		return keys;
+	}
+
+	Object[] getValues() {
+		return values;
+	}
+
+	/**
+	 * @return the cursor as an url-safe string
+	 * @throws DataAccessLayerException if a key is not of a type a cursor can hold
+	 */
+	public String encode() {
+		try (ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(VERSION);
+			out.writeShort(keys.length);
+			for (int i = 0; i < keys.length; i++) {
+				writeString(out, keys[i]);
+				writeValue(out, keys[i], values[i]);
+			}
+			out.flush();
+			byte[] payload = bytes.toByteArray();
+			byte[] signed = Arrays.copyOf(payload, payload.length + MAC_LENGTH);
+			System.arraycopy(mac(payload, payload.length), 0, signed, payload.length, MAC_LENGTH);
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(signed);
+		} catch (IOException e) {
+			throw new DataAccessLayerException("Impossible to encode the keyset cursor", e);
+		}
+	}
+
+	/**
+	 * Rebuild a cursor from {@link #encode()}
+	 * @param encoded
+	 * @return the cursor, or null for a null or empty string (first page)
+	 * @throws DataAccessLayerException if the string is not a cursor, or its signature does not verify
+	 */
+	public static KeysetCursor decode(String encoded) {
+		if (encoded == null || encoded.isEmpty()) {
+			return null;
+		}
+		try {
+			byte[] signed = Base64.getUrlDecoder().decode(encoded);
+			int length = signed.length - MAC_LENGTH;
+			if (length <= 0 || !MessageDigest.isEqual(mac(signed, length), Arrays.copyOfRange(signed, length, signed.length))) {
+				throw new DataAccessLayerException("Invalid keyset cursor: bad signature");
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(signed, 0, length);
+			if (buffer.get() != VERSION) {
+				throw new DataAccessLayerException("Invalid keyset cursor: unknown version");
+			}
+			int count = buffer.getShort() & 0xffff;
+			String[] keys = new String[count];
+			Object[] values = new Object[count];
+			for (int i = 0; i < count; i++) {
+				keys[i] = readString(buffer);
+				values[i] = readValue(buffer);
+			}
+			if (buffer.hasRemaining()) {
+				throw new DataAccessLayerException("Invalid keyset cursor: trailing bytes");
+			}
+			return new KeysetCursor(keys, values);
+		} catch (IllegalArgumentException | BufferUnderflowException e) {
+			throw new DataAccessLayerException("Invalid keyset cursor", e);
+		}
+	}
+
+	private static void writeValue(DataOutputStream out, String key, Object value) throws IOException {
+		if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Integer) {
+			out.writeByte(INTEGER);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Short) {
+			out.writeByte(SHORT);
+			out.writeShort((Short) value);
+		} else if (value instanceof Byte) {
+			out.writeByte(BYTE);
+			out.writeByte((Byte) value);
+		} else if (value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof Float) {
+			out.writeByte(FLOAT);
+			out.writeFloat((Float) value);
+		} else if (value instanceof BigDecimal) {
+			out.writeByte(BIG_DECIMAL);
+			writeString(out, ((BigDecimal) value).toString());
+		} else if (value instanceof BigInteger) {
+			out.writeByte(BIG_INTEGER);
+			writeString(out, value.toString());
+		} else if (value instanceof String) {
+			out.writeByte(STRING);
+			writeString(out, (String) value);
+		} else if (value instanceof Character) {
+			out.writeByte(CHARACTER);
+			out.writeChar((Character) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof Timestamp) {
+			out.writeByte(TIMESTAMP);
+			out.writeLong(((Timestamp) value).getTime());
+			out.writeInt(((Timestamp) value).getNanos());
+		} else if (value instanceof java.sql.Date) {
+			out.writeByte(SQL_DATE);
+			out.writeLong(((Date) value).getTime());
+		} else if (value instanceof Time) {
+			out.writeByte(SQL_TIME);
+			out.writeLong(((Date) value).getTime());
+		} else if (value != null && value.getClass() == Date.class) {
+			out.writeByte(DATE);
+			out.writeLong(((Date) value).getTime());
+		} else {
+			throw new DataAccessLayerException("Keyset key " + key + " of type "
+					+ (value == null ? "null" : value.getClass().getName()) + " cannot be on a cursor");
+		}
+	}
+
+	private static Object readValue(ByteBuffer in) {
+		byte type = in.get();
+		switch (type) {
+		case LONG:
+			return in.getLong();
+		case INTEGER:
+			return in.getInt();
+		case SHORT:
+			return in.getShort();
+		case BYTE:
+			return in.get();
+		case DOUBLE:
+			return in.getDouble();
+		case FLOAT:
+			return in.getFloat();
+		case BIG_DECIMAL:
+			return new BigDecimal(readString(in));
+		case BIG_INTEGER:
+			return new BigInteger(readString(in));
+		case STRING:
+			return readString(in);
+		case CHARACTER:
+			return in.getChar();
+		case BOOLEAN:
+			return in.get() != 0;
+		case TIMESTAMP:
+			Timestamp timestamp = new Timestamp(in.getLong());
+			timestamp.setNanos(in.getInt());
+			return timestamp;
+		case SQL_DATE:
+			return new java.sql.Date(in.getLong());
+		case SQL_TIME:
+			return new Time(in.getLong());
+		case DATE:
+			return new Date(in.getLong());
+		default:
+			throw new DataAccessLayerException("Invalid keyset cursor: unknown type " + type);
+		}
+	}
+
+	/**
+	 * UTF-8 with an int length (writeUTF stops at 64K)
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		if (length < 0 || length > in.remaining()) {
+			throw new DataAccessLayerException("Invalid keyset cursor: bad string length");
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] mac(byte[] payload, int length) {
+		try {
+			Mac mac = Mac.getInstance(ALGORITHM);
+			mac.init(Secret.KEY);
+			mac.update(payload, 0, length);
+			return mac.doFinal();
+		} catch (GeneralSecurityException e) {
+			throw new DataAccessLayerException("Impossible to sign the keyset cursor", e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "KeysetCursor" + Arrays.toString(keys) + "=" + Arrays.toString(values);
+	}
+
+	/**
+	 * The HMAC key, made on the first use
+	 */
+	private static final class Secret {
+		static final SecretKeySpec KEY = key();
+
+		private static SecretKeySpec key() {
+			String configured = System.getProperty(SECRET);
+			if (configured != null && !configured.trim().isEmpty()) {
+				return new SecretKeySpec(configured.trim().getBytes(StandardCharsets.UTF_8), ALGORITHM);
+			}
+			byte[] random = new byte[MAC_LENGTH];
+			new SecureRandom().nextBytes(random);
+			return new SecretKeySpec(random, ALGORITHM);
+		}
+	}
+}
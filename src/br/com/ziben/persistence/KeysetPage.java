@@ -0,0 +1,54 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A page of a keyset pagination and the cursor to ask for the next one
+ * @author ccardozo
+ *
+ * @param <T>
+ */
+public class KeysetPage<T> implements Serializable {
+
+	private static final long serialVersionUID = -1879623155085937724L;
+
+	private final List<T> rows;
+	private final KeysetCursor next;
+
+	KeysetPage(List<T> rows, KeysetCursor next) {
+		this.rows = rows;
+		this.next = next;
+	}
+
+	public List<T> getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return the cursor of the next page, or null if this is the last one
+	 */
+	public KeysetCursor getNext() {
+		return next;
+	}
+
+	public boolean hasNext() {
+		return next != null;
+	}
+}
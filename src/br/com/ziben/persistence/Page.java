@@ -0,0 +1,85 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A page of an offset pagination, with the total of rows when counted
+ * @author ccardozo
+ *
+ * @param <T>
+ */
+public class Page<T> implements Serializable {
+
+	private static final long serialVersionUID = 4127853390628167043L;
+
+	private final List<T> rows;
+	private final int start;
+	private final int pageSize;
+	private final long total;
+	private final boolean next;
+
+	Page(List<T> rows, int start, int pageSize, long total, boolean next) {
+		this.rows = rows;
+		this.start = start;
+		this.pageSize = pageSize;
+		this.total = total;
+		this.next = next;
+	}
+
+	public List<T> getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return the position of the first row of the page
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * @return the rows matching the criterions, or -1 if not counted
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	public boolean hasTotal() {
+		return total >= 0;
+	}
+
+	public boolean hasNext() {
+		return next;
+	}
+
+	public boolean hasPrevious() {
+		return start > 0;
+	}
+
+	@Override
+	public String toString() {
+		return "Page[start=" + start + ", rows=" + rows.size() + ", total=" + (hasTotal() ? String.valueOf(total) : "?")
+				+ ", next=" + next + "]";
+	}
+}
@@ -0,0 +1,206 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.Type;
+
+import br.com.ziben.persistence.pool.PoolMetrics;
+
+/**
+ * Routes the reads of the DAOs bound to a primary factory to its replica factories
+ * (named factories of {@link HibernateFactory}). Writes, and everything done inside
+ * a SessionDAOCtrl transaction, stay on the primary.<br>
+ * With a read-your-writes window, the reads of an entity go to the primary for that
+ * long after a commit on it, while the replicas catch up.<br>
+ * A commit on an entity also evicts it from the second-level cache of the replicas,
+ * which know nothing of the writes on the primary; once more at the end of the window,
+ * for what they cached while catching up.
+ * @author ccardozo
+ *
+ */
+public class ReplicaRouter {
+
+	public enum Policy {
+		/** each read on the next replica */
+		ROUND_ROBIN,
+		/** the replica whose pool has less connections in use and waiting */
+		LEAST_BUSY
+	}
+
+	private static final Logger log = Logger.getLogger(ReplicaRouter.class);
+	private static final ConcurrentMap<String, ReplicaRouter> routers = new ConcurrentHashMap<String, ReplicaRouter>();
+
+	private final String primary;
+	private final String[] replicas;
+	private final Policy policy;
+	private final AtomicInteger next = new AtomicInteger();
+	private final ConcurrentMap<Class<?>, Long> lastWrites = new ConcurrentHashMap<Class<?>, Long>();
+	private volatile long readYourWritesMillis = 0;
+
+	private ReplicaRouter(String primary, Policy policy, String[] replicas) {
+		this.primary = primary;
+		this.policy = policy;
+		this.replicas = replicas;
+	}
+
+	/**
+	 * Route the reads of the DAOs on the primary factory to the replicas
+	 * @param primary name of the primary factory
+	 * @param policy
+	 * @param replicas names of the replica factories
+	 * @return the router, replacing any other of the primary
+	 */
+	public static ReplicaRouter register(String primary, Policy policy, String... replicas) {
+		if (replicas == null || replicas.length == 0) {
+			throw new IllegalArgumentException("At least one replica is needed for " + primary);
+		}
+		ReplicaRouter router = new ReplicaRouter(primary, policy, replicas.clone());
+		routers.put(primary, router);
+		log.info("Reads of " + primary + " routed to " + Arrays.toString(replicas) + " by " + policy);
+		return router;
+	}
+
+	/**
+	 * Send all the reads of the primary factory back to it
+	 * @param primary
+	 */
+	public static void unregister(String primary) {
+		routers.remove(primary);
+	}
+
+	/**
+	 * @param primary
+	 * @return the router of the primary factory, or null if its reads are not routed
+	 */
+	public static ReplicaRouter forPrimary(String primary) {
+		return routers.get(primary);
+	}
+
+	/**
+	 * Keep the reads of an entity on the primary for this long after a commit on it
+	 * @param millis 0 (default) to disable
+	 */
+	public void setReadYourWrites(long millis) {
+		this.readYourWritesMillis = Math.max(0, millis);
+		if (millis <= 0) {
+			lastWrites.clear();
+		}
+	}
+
+	public long getReadYourWrites() {
+		return readYourWritesMillis;
+	}
+
+	public String getPrimary() {
+		return primary;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @param entity
+	 * @return the factory that serves the next read on the entity
+	 */
+	String route(Class<?> entity) {
+		if (readYourWritesMillis > 0) {
+			Long written = lastWrites.get(entity);
+			if (written != null) {
+				if (System.currentTimeMillis() - written < readYourWritesMillis) {
+					return primary;
+				}
+				if (lastWrites.remove(entity, written)) {
+					evictReplicas(entity);
+				}
+			}
+		}
+		if (policy == Policy.LEAST_BUSY) {
+			String chosen = leastBusy();
+			if (chosen != null) {
+				return chosen;
+			}
+		}
+		return replicas[(next.getAndIncrement() & Integer.MAX_VALUE) % replicas.length];
+	}
+
+	/**
+	 * Register a commit on the entity, for the read-your-writes window
+	 * @param entity
+	 */
+	void written(Class<?> entity) {
+		if (readYourWritesMillis > 0) {
+			lastWrites.put(entity, System.currentTimeMillis());
+		}
+		evictReplicas(entity);
+	}
+
+	/**
+	 * Drop the entity and its collections from the second-level cache of the replicas built
+	 * @param entity
+	 */
+	private void evictReplicas(Class<?> entity) {
+		for (final String replica : replicas) {
+			SessionFactory factory = HibernateFactory.getSessionFactory(replica);
+			ClassMetadata metadata = factory == null || factory.isClosed() ? null : factory.getClassMetadata(entity);
+			if (metadata == null) {
+				continue;
+			}
+			Cache cache = factory.getCache();
+			cache.evictEntityRegion(entity);
+			for (final Type type : metadata.getPropertyTypes()) {
+				if (type.isCollectionType()) {
+					cache.evictCollectionRegion(((CollectionType) type).getRole());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the replica with the lowest pool load, or null when some pool
+	 * is unknown (not built yet, or not a PooledConnectionProvider)
+	 */
+	private String leastBusy() {
+		String chosen = null;
+		double lowest = Double.MAX_VALUE;
+		// ties go round robin, so idle replicas share the load
+		int start = next.getAndIncrement() & Integer.MAX_VALUE;
+		for (int i = 0; i < replicas.length; i++) {
+			String replica = replicas[(start + i) % replicas.length];
+			PoolMetrics metrics = HibernateFactory.getPoolMetrics(replica);
+			if (metrics == null) {
+				return null;
+			}
+			double load = (double) (metrics.getActive() + metrics.getWaiters()) / Math.max(1, metrics.getMaxSize());
+			if (load < lowest) {
+				lowest = load;
+				chosen = replica;
+			}
+		}
+		return chosen;
+	}
+}
@@ -0,0 +1,193 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.ProjectionList;
+
+import br.com.ziben.persistence.cache.CacheStatistics;
+import br.com.ziben.persistence.cache.LocalCache;
+
+/**
+ * Results of the criteria queries of an entity, shared by its DAOs that enabled it
+ * ({@link GenericSessionDAO#enableResultCache()}).<br>
+ * The key is made of the value keys of the criterions (in any order, see
+ * {@link CriterionKey}), of the order list, of the projection list and the page
+ * bounds; queries with criterions without a value key (SQL restrictions, subqueries,
+ * values of other types) are never cached. Every committed write on the entity clears it, and a query
+ * that started before the write does not put its result back.
+ * @author ccardozo
+ *
+ */
+public final class ResultCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+	private static final ConcurrentMap<String, ResultCache> caches = new ConcurrentHashMap<String, ResultCache>();
+
+	private final LocalCache cache;
+	// bumped on every invalidation, a put of an older generation is dropped
+	private final AtomicLong generation = new AtomicLong();
+
+	private ResultCache(String name, int maxEntries, long ttlMillis) {
+		this.cache = new LocalCache(name, maxEntries, ttlMillis);
+	}
+
+	/**
+	 * The cache of an entity, created with these bounds on the first call
+	 * @param factoryName
+	 * @param entity
+	 * @param maxEntries capacity, 0 for unbounded
+	 * @param ttlMillis time to live of the results, 0 for none
+	 * @return
+	 */
+	static ResultCache enable(String factoryName, Class<?> entity, int maxEntries, long ttlMillis) {
+		String name = name(factoryName, entity);
+		ResultCache resultCache = caches.get(name);
+		if (resultCache == null) {
+			ResultCache created = new ResultCache(name, maxEntries, ttlMillis);
+			resultCache = caches.putIfAbsent(name, created);
+			if (resultCache == null) {
+				resultCache = created;
+			}
+		}
+		return resultCache;
+	}
+
+	/**
+	 * @return the cache of an entity, or null if no DAO enabled it
+	 */
+	static ResultCache forEntity(String factoryName, Class<?> entity) {
+		return caches.get(name(factoryName, entity));
+	}
+
+	/**
+	 * Drop the results of an entity, called once a write on it is committed
+	 */
+	static void invalidate(String factoryName, Class<?> entity) {
+		ResultCache resultCache = caches.get(name(factoryName, entity));
+		if (resultCache != null) {
+			resultCache.invalidate();
+		}
+	}
+
+	/**
+	 * @return the counters of every result cache
+	 */
+	public static List<CacheStatistics> getAllStatistics() {
+		List<CacheStatistics> statistics = new ArrayList<CacheStatistics>();
+		for (final ResultCache resultCache : caches.values()) {
+			statistics.add(resultCache.getStatistics());
+		}
+		return statistics;
+	}
+
+	public CacheStatistics getStatistics() {
+		return cache.getStatistics();
+	}
+
+	void invalidate() {
+		synchronized (cache) {
+			generation.incrementAndGet();
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Look a query up
+	 * @param operation the DAO method, part of the key
+	 * @param criterions
+	 * @param orders
+	 * @param projections
+	 * @param bounds the page bounds (or cursor), null if none
+	 * @return the lookup, or null if the query can not be cached
+	 */
+	Lookup lookup(String operation, List<Criterion> criterions, List<Order> orders, ProjectionList projections,
+			Object bounds) {
+		String key = key(operation, criterions, orders, projections, bounds);
+		if (key == null) {
+			return null;
+		}
+		// read before the query runs: a write committed meanwhile makes the put void
+		long current = generation.get();
+		return new Lookup(key, current, cache.get(key));
+	}
+
+	private void put(String key, Object value, long expected) {
+		synchronized (cache) {
+			if (generation.get() == expected) {
+				cache.put(key, value);
+			}
+		}
+	}
+
+	/**
+	 * @return the key, or null if a criterion has no value key ({@link CriterionKey})
+	 */
+	private static String key(String operation, List<Criterion> criterions, List<Order> orders,
+			ProjectionList projections, Object bounds) {
+		String restrictions = criterions == null ? "[]" : CriterionKey.of(criterions);
+		if (restrictions == null) {
+			return null;
+		}
+		StringBuilder key = new StringBuilder(operation).append('|').append(restrictions);
+		key.append('|').append(orders == null ? "[]" : CriterionKey.of(orders));
+		key.append('|').append(projections == null || projections.getLength() == 0 ? "" : projections.toString());
+		key.append('|').append(bounds == null ? "" : bounds.toString());
+		return key.toString();
+	}
+
+	private static String name(String factoryName, Class<?> entity) {
+		return factoryName + ":" + entity.getName();
+	}
+
+	/**
+	 * A lookup done: the value found, or the key and generation to store the result
+	 */
+	final class Lookup {
+		private final String key;
+		private final long generation;
+		private final Object value;
+
+		private Lookup(String key, long generation, Object value) {
+			this.key = key;
+			this.generation = generation;
+			this.value = value;
+		}
+
+		boolean isHit() {
+			return value != null;
+		}
+
+		Object getValue() {
+			return value;
+		}
+
+		void store(Object result) {
+			if (result != null) {
+				put(key, result, generation);
+			}
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Rows of an entity counted in memory, shared by its DAOs once one enabled it
+ * ({@link GenericSessionDAO#enableRowCounter()}).<br>
+ * Seeded by a COUNT(*) on the first read, it is then moved by the committed writes
+ * of the DAOs: save, persist (of new objects), delete, the bulk writes, the ingestion
+ * streams, and clean, which sets it to zero. It is exact as long as every write on the
+ * table goes through the DAOs of this process; after writes from elsewhere,
+ * {@link #invalidate()} makes the next read count again.
+ * @author ccardozo
+ *
+ */
+public final class RowCounter {
+
+	private static final ConcurrentMap<String, RowCounter> counters = new ConcurrentHashMap<String, RowCounter>();
+
+	private final AtomicLong count = new AtomicLong();
+	private volatile boolean seeded = false;
+
+	private RowCounter() {
+	}
+
+	static RowCounter enable(String factoryName, Class<?> entity) {
+		String name = name(factoryName, entity);
+		RowCounter counter = counters.get(name);
+		if (counter == null) {
+			RowCounter created = new RowCounter();
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	static void disable(String factoryName, Class<?> entity) {
+		counters.remove(name(factoryName, entity));
+	}
+
+	/**
+	 * @return the counter of an entity, or null if no DAO enabled it
+	 */
+	static RowCounter forEntity(String factoryName, Class<?> entity) {
+		return counters.get(name(factoryName, entity));
+	}
+
+	/**
+	 * Apply the rows inserted (positive) or deleted (negative) by a committed write
+	 */
+	static void add(String factoryName, Class<?> entity, long delta) {
+		RowCounter counter = forEntity(factoryName, entity);
+		if (counter != null) {
+			counter.count.addAndGet(delta);
+		}
+	}
+
+	/**
+	 * The table was emptied by a committed write
+	 */
+	static void reset(String factoryName, Class<?> entity) {
+		RowCounter counter = forEntity(factoryName, entity);
+		if (counter != null) {
+			counter.reset();
+		}
+	}
+
+	/**
+	 * @param exact the COUNT(*), run on the first read
+	 * @return the rows of the entity
+	 */
+	long get(LongSupplier exact) {
+		if (!seeded) {
+			synchronized (this) {
+				if (!seeded) {
+					// the writes counted so far are on the table the query sees
+					long before = count.get();
+					long rows = exact.getAsLong();
+					count.addAndGet(rows - before);
+					seeded = true;
+				}
+			}
+		}
+		return Math.max(0, count.get());
+	}
+
+	synchronized void reset() {
+		count.set(0);
+		seeded = true;
+	}
+
+	/**
+	 * Count again on the next read, after writes that did not go through the DAOs
+	 */
+	public void invalidate() {
+		seeded = false;
+	}
+
+	public boolean isSeeded() {
+		return seeded;
+	}
+
+	private static String name(String factoryName, Class<?> entity) {
+		return factoryName + "/" + entity.getName();
+	}
+}
@@ -0,0 +1,118 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.function.LongFunction;
+
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Restrictions;
+
+/**
+ * Splits the range of a numeric or date property in partitions of the same width, for
+ * the parallel scans. The first partition has no lower bound and the last one no upper
+ * bound, so every row not null is in exactly one of them, whatever the rounding of the
+ * bounds to the type of the column and the rows written since the range was read.
+ * @author ccardozo
+ *
+ */
+final class ScanPartitions {
+
+	private ScanPartitions() {
+	}
+
+	/**
+	 * @param property
+	 * @param min lowest value of the property, null if there are no rows
+	 * @param max highest value of the property
+	 * @param count partitions wanted, fewer if the range is narrower
+	 * @return the restriction of each partition, in the order of the property
+	 */
+	static List<Criterion> split(String property, Object min, Object max, int count) {
+		List<Criterion> partitions = new ArrayList<Criterion>();
+		if (min == null || max == null) {
+			return partitions;
+		}
+		long low = toLong(property, min);
+		long high = toLong(property, max);
+		LongFunction<Object> value = fromLong(min);
+		long step = (long) Math.ceil(((double) high - low + 1) / Math.max(1, count));
+		List<Object> bounds = new ArrayList<Object>();
+		for (long bound = low + Math.max(1, step); bound <= high && bound > low && bounds.size() < count - 1; bound += step) {
+			bounds.add(value.apply(bound));
+		}
+		if (bounds.isEmpty()) {
+			partitions.add(Restrictions.isNotNull(property));
+			return partitions;
+		}
+		partitions.add(Restrictions.lt(property, bounds.get(0)));
+		for (int i = 1; i < bounds.size(); i++) {
+			partitions.add(Restrictions.and(Restrictions.ge(property, bounds.get(i - 1)), Restrictions.lt(property, bounds.get(i))));
+		}
+		partitions.add(Restrictions.ge(property, bounds.get(bounds.size() - 1)));
+		return partitions;
+	}
+
+	private static long toLong(String property, Object value) {
+		if (value instanceof Date) {
+			return ((Date) value).getTime();
+		}
+		if (value instanceof Double || value instanceof Float || value instanceof BigDecimal) {
+			return (long) Math.floor(((Number) value).doubleValue());
+		}
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		throw new IllegalArgumentException("Cannot split the range of " + property + " (" + value.getClass().getName()
+				+ "), only of numbers and dates");
+	}
+
+	/**
+	 * @return the conversion of a bound back to the type of the property
+	 */
+	private static LongFunction<Object> fromLong(Object sample) {
+		if (sample instanceof Date) {
+			return Date::new;
+		}
+		if (sample instanceof Integer) {
+			return bound -> (int) bound;
+		}
+		if (sample instanceof Short) {
+			return bound -> (short) bound;
+		}
+		if (sample instanceof Byte) {
+			return bound -> (byte) bound;
+		}
+		if (sample instanceof BigInteger) {
+			return BigInteger::valueOf;
+		}
+		if (sample instanceof BigDecimal) {
+			return BigDecimal::valueOf;
+		}
+		if (sample instanceof Double) {
+			return bound -> (double) bound;
+		}
+		if (sample instanceof Float) {
+			return bound -> (float) bound;
+		}
+		return bound -> bound;
+	}
+}
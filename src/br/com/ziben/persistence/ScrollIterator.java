@@ -0,0 +1,156 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import br.com.ziben.persistence.metrics.DaoMetrics;
+
+/**
+ * Iterator over a forward-only ScrollableResults. Each row handed out is evicted from
+ * the session when the next one is requested, so the session never grows; closing it
+ * releases the cursor, ends the transaction (if it owns one) and closes the session.
+ * @author ccardozo
+ *
+ * @param <T>
+ */
+@SuppressWarnings("unchecked")
+final class ScrollIterator<T> implements Iterator<T>, AutoCloseable {
+
+	private static final Logger log = Logger.getLogger(ScrollIterator.class);
+
+	private final ScrollableResults results;
+	private final Session session;
+	private final Transaction tx;
+
+	private Object current;
+	private Object next;
+	private boolean fetched = false;
+	private boolean exhausted = false;
+	private boolean closed = false;
+
+	private Class<?> entity;
+	private String operation;
+	private long started = DaoMetrics.NOT_STARTED;
+	private long rows = 0;
+
+	/**
+	 * @param results the opened cursor
+	 * @param session the session owning the cursor, closed with the iterator
+	 * @param tx the transaction to commit on close, or null if it belongs to someone else
+	 */
+	ScrollIterator(ScrollableResults results, Session session, Transaction tx) {
+		this.results = results;
+		this.session = session;
+		this.tx = tx;
+	}
+
+	/**
+	 * Record the stream on the {@link DaoMetrics} when closed: its rows and the
+	 * time from the opening to the close
+	 */
+	void recordAs(Class<?> entity, String operation, long started) {
+		this.entity = entity;
+		this.operation = operation;
+		this.started = started;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (!fetched && !exhausted) {
+			evictCurrent();
+			try {
+				if (!closed && results.next()) {
+					// same shape as Criteria.list(): a single column is not wrapped on an array
+					final Object[] row = results.get();
+					next = row.length == 1 ? row[0] : row;
+					fetched = true;
+				} else {
+					exhausted = true;
+					close();
+				}
+			} catch (HibernateException e) {
+				close(true);
+				throw new DataAccessLayerException(e);
+			} catch (RuntimeException e) {
+				close(true);
+				throw e;
+			}
+		}
+		return fetched;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		current = next;
+		next = null;
+		rows++;
+		fetched = false;
+		return (T) current;
+	}
+
+	private void evictCurrent() {
+		if (current != null && !closed && session.contains(current)) {
+			session.evict(current);
+		}
+		current = null;
+	}
+
+	@Override
+	public void close() {
+		close(false);
+	}
+
+	/**
+	 * @param failed true when closing on a failure of the cursor: the transaction is rolled
+	 * back and the stream recorded as failed, not as a success
+	 */
+	private void close(boolean failed) {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			results.close();
+			if (failed) {
+				DaoMetrics.failure(entity, operation, started);
+				HibernateFactory.rollback(tx);
+				return;
+			}
+			if (tx != null) {
+				tx.commit();
+			}
+			DaoMetrics.success(entity, operation, started, rows);
+		} catch (HibernateException e) {
+			log.error("Impossible to finish the scroll", e);
+			DaoMetrics.failure(entity, operation, started);
+			HibernateFactory.rollback(tx);
+		} finally {
+			HibernateFactory.close(session);
+		}
+	}
+}
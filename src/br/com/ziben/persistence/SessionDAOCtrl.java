@@ -16,6 +16,11 @@ along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
 */
 package br.com.ziben.persistence;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
 import org.apache.log4j.Logger;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
@@ -33,6 +38,12 @@ public class SessionDAOCtrl extends GenericSessionDAO<SessionDAOCtrl> {
 	
 	private static final Logger log = Logger.getLogger(SessionDAOCtrl.class);
 	
+	// entities written on the current transaction
+	private final Set<Class<?>> writtenEntities = new HashSet<Class<?>>();
+	// row counter changes of the current transaction, by entity
+	private final Map<Class<?>, Long> countDeltas = new HashMap<Class<?>, Long>();
+	private final Set<Class<?>> countResets = new HashSet<Class<?>>();
+	
 //    private Session sessionCtrl;
 //    private Transaction txCtrl;
 
@@ -42,6 +53,16 @@ public class SessionDAOCtrl extends GenericSessionDAO<SessionDAOCtrl> {
 	public SessionDAOCtrl() {
 		super.openSession();
     }
+
+	/**
+	 * Controller of transactions on a named factory; the DAOs built
+	 * over it work on the same factory
+	 * @param factoryName
+	 */
+	public SessionDAOCtrl(String factoryName) {
+		super(factoryName);
+		super.openSession();
+    }
 	
     /**
      * just return the current session
@@ -53,16 +74,64 @@ public class SessionDAOCtrl extends GenericSessionDAO<SessionDAOCtrl> {
 	
 	
     public void beginTransaction() throws HibernateException {
+        // left by a transaction the DAOs rolled back themselves
+        clearCounts();
         super.beginTransaction();
     }
     
     public void commitTransaction() throws HibernateException {
         super.commitTransaction();
+        for (final Class<?> entity : writtenEntities) {
+        	committed(getFactoryName(), entity);
+        }
+        writtenEntities.clear();
+        for (final Class<?> entity : countResets) {
+        	RowCounter.reset(getFactoryName(), entity);
+        }
+        for (final Map.Entry<Class<?>, Long> delta : countDeltas.entrySet()) {
+        	RowCounter.add(getFactoryName(), delta.getKey(), delta.getValue());
+        }
+        clearCounts();
     }
     
     public void rollbackTransaction() throws HibernateException {
+        writtenEntities.clear();
+        clearCounts();
         super.rollbackTransaction();
     }
 
+    /**
+     * Register a write on the entity, to be notified on commit
+     * @param entity
+     */
+    void written(Class<?> entity) {
+    	writtenEntities.add(entity);
+    }
+
+    /**
+     * Register rows inserted (or deleted, negative) on the entity, counted on commit
+     * @param entity
+     * @param delta
+     */
+    void counted(Class<?> entity, long delta) {
+    	Long pending = countDeltas.get(entity);
+    	countDeltas.put(entity, pending == null ? delta : pending + delta);
+    }
+
+    /**
+     * Register the entity table emptied: the counter is zeroed on commit, before the
+     * rows written after it are counted
+     * @param entity
+     */
+    void countReset(Class<?> entity) {
+    	countResets.add(entity);
+    	countDeltas.remove(entity);
+    }
+
+    private void clearCounts() {
+    	countDeltas.clear();
+    	countResets.clear();
+    }
+
 }
 
@@ -0,0 +1,144 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.util.Locale;
+
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.dialect.Oracle8iDialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.dialect.SQLServerDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Row estimates the databases keep for their optimizers: read from the catalog
+ * without touching the table, as fresh as the last statistics gathering (ANALYZE,
+ * DBMS_STATS) or, on InnoDB, a sample of the index pages.
+ * @author ccardozo
+ *
+ */
+final class TableStatistics {
+
+	private static final Logger log = Logger.getLogger(TableStatistics.class);
+
+	private TableStatistics() {
+	}
+
+	/**
+	 * @param session
+	 * @param persister of the entity
+	 * @return the estimated rows of the table of the entity, or null if the database
+	 *         has none or the table holds other entities too (inheritance)
+	 */
+	static Long estimate(Session session, EntityPersister persister) {
+		String qualified = ownTable(persister);
+		if (qualified == null) {
+			return null;
+		}
+		int dot = qualified.lastIndexOf('.');
+		String schema = dot < 0 ? null : qualified.substring(0, dot);
+		String table = qualified.substring(dot + 1);
+		Dialect dialect = ((SessionFactoryImplementor) session.getSessionFactory()).getDialect();
+		Query query;
+		if (dialect instanceof MySQLDialect) {
+			query = schema == null
+					? session.createSQLQuery("select table_rows from information_schema.tables where table_schema = database() and table_name = ?")
+							.setString(0, unquote(table, false))
+					: session.createSQLQuery("select table_rows from information_schema.tables where table_schema = ? and table_name = ?")
+							.setString(0, unquote(schema, false)).setString(1, unquote(table, false));
+		} else if (isOracle(dialect)) {
+			query = schema == null
+					? session.createSQLQuery("select num_rows from user_tables where table_name = ?")
+							.setString(0, unquote(table, true))
+					: session.createSQLQuery("select num_rows from all_tables where owner = ? and table_name = ?")
+							.setString(0, unquote(schema, true)).setString(1, unquote(table, true));
+		} else if (dialect instanceof PostgreSQL81Dialect) {
+			// reltuples is -1 on a table never analyzed (PostgreSQL 14+)
+			query = session.createSQLQuery("select cast(reltuples as bigint) from pg_class where oid = cast(? as regclass)")
+					.setString(0, qualified);
+		} else if (dialect instanceof SQLServerDialect) {
+			query = session.createSQLQuery("select sum(rows) from sys.partitions where object_id = object_id(?) and index_id in (0, 1)")
+					.setString(0, qualified);
+		} else if (dialect instanceof H2Dialect) {
+			query = schema == null
+					? session.createSQLQuery("select row_count_estimate from information_schema.tables where table_schema = schema() and table_name = ?")
+							.setString(0, unquote(table, true))
+					: session.createSQLQuery("select row_count_estimate from information_schema.tables where table_schema = ? and table_name = ?")
+							.setString(0, unquote(schema, true)).setString(1, unquote(table, true));
+		} else {
+			return null;
+		}
+		try {
+			Number rows = (Number) query.uniqueResult();
+			return rows == null || rows.longValue() < 0 ? null : rows.longValue();
+		} catch (HibernateException e) {
+			// no grant on the catalog, a view...
+			log.debug("No statistics of " + qualified + ": " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * @param dialect
+	 * @return whether it is (or extends) one of the Oracle dialects; Oracle9Dialect and
+	 *         OracleDialect do not extend Oracle8iDialect
+	 */
+	static boolean isOracle(Dialect dialect) {
+		if (dialect instanceof Oracle8iDialect) {
+			return true;
+		}
+		for (Class<?> type = dialect.getClass(); type != null; type = type.getSuperclass()) {
+			if (type.getName().startsWith("org.hibernate.dialect.Oracle")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param persister
+	 * @return the table of the entity, as mapped (maybe qualified), or null if it holds
+	 *         other entities too (inheritance)
+	 */
+	static String ownTable(EntityPersister persister) {
+		if (!(persister instanceof AbstractEntityPersister) || persister.getEntityMetamodel().hasSubclasses()
+				|| !persister.getEntityName().equals(persister.getRootEntityName())) {
+			return null;
+		}
+		return ((AbstractEntityPersister) persister).getRootTableName();
+	}
+
+	/**
+	 * The name as the catalog keeps it: quoted as is, unquoted in upper case on the
+	 * databases that fold identifiers to it
+	 */
+	static String unquote(String identifier, boolean foldsToUpper) {
+		char first = identifier.charAt(0);
+		if (first == '"' || first == '`' || first == '[') {
+			return identifier.substring(1, identifier.length() - 1);
+		}
+		return foldsToUpper ? identifier.toUpperCase(Locale.ROOT) : identifier;
+	}
+}
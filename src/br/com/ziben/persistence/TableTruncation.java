@@ -0,0 +1,102 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Locale;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.dialect.SQLServerDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * When a table can be emptied with TRUNCATE TABLE instead of a DELETE: the dialect
+ * knows it, the table holds only the entity and no foreign key points to it. A
+ * truncate of a partitioned table empties all its partitions.
+ * @author ccardozo
+ *
+ */
+final class TableTruncation {
+
+	private static final Logger log = Logger.getLogger(TableTruncation.class);
+
+	private TableTruncation() {
+	}
+
+	/**
+	 * @param session on the factory of the entity
+	 * @param persister of the entity
+	 * @return the TRUNCATE statement of the table, or null if it has to be deleted
+	 */
+	static String statement(Session session, EntityPersister persister) {
+		Dialect dialect = ((SessionFactoryImplementor) session.getSessionFactory()).getDialect();
+		if (!(dialect instanceof MySQLDialect || TableStatistics.isOracle(dialect)
+				|| dialect instanceof PostgreSQL81Dialect || dialect instanceof SQLServerDialect
+				|| dialect instanceof H2Dialect)) {
+			log.debug("No TRUNCATE on " + dialect);
+			return null;
+		}
+		final String table = TableStatistics.ownTable(persister);
+		if (table == null) {
+			log.debug("The table of " + persister.getEntityName() + " holds other entities");
+			return null;
+		}
+		final boolean[] referenced = { true };
+		session.doWork(connection -> referenced[0] = isReferenced(connection.getMetaData(), table));
+		if (referenced[0]) {
+			log.debug("Foreign keys point to " + table + ", no TRUNCATE");
+			return null;
+		}
+		return "truncate table " + table;
+	}
+
+	/**
+	 * @return true if some foreign key points to the table
+	 */
+	private static boolean isReferenced(DatabaseMetaData meta, String table) throws SQLException {
+		boolean upper = meta.storesUpperCaseIdentifiers();
+		boolean lower = meta.storesLowerCaseIdentifiers();
+		String[] parts = table.split("\\.");
+		String name = identifier(parts[parts.length - 1], upper, lower);
+		String schema = parts.length > 1 ? identifier(parts[parts.length - 2], upper, lower) : null;
+		String catalog = parts.length > 2 ? identifier(parts[parts.length - 3], upper, lower) : null;
+		if (schema != null && parts.length == 2 && !meta.supportsSchemasInTableDefinitions()) {
+			// MySQL: database.table
+			catalog = schema;
+			schema = null;
+		}
+		try (ResultSet keys = meta.getExportedKeys(catalog, schema, name)) {
+			return keys.next();
+		}
+	}
+
+	private static String identifier(String name, boolean upper, boolean lower) {
+		String unquoted = TableStatistics.unquote(name, false);
+		if (!unquoted.equals(name)) {
+			return unquoted;
+		}
+		return upper ? name.toUpperCase(Locale.ROOT) : lower ? name.toLowerCase(Locale.ROOT) : name;
+	}
+}
@@ -0,0 +1,388 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+import br.com.ziben.persistence.metrics.LatencyHistogram;
+
+/**
+ * Opt-in write-behind buffer of an entity: the writes are kept in memory, the last
+ * one of each id replacing the previous, and flushed by a background thread with
+ * {@link GenericSessionDAO#persistAll(java.util.Collection)}, in one transaction and
+ * JDBC batches, when flushSize entities are pending or the oldest has waited
+ * flushInterval.<br>
+ * At most capacity entities are pending or being flushed: beyond that
+ * {@link #write(Object)} blocks until a flush makes room (and {@link #offer} gives up
+ * after its timeout). A failed flush is rolled back and its entities queued again,
+ * unless written meanwhile, up to maxRetries times; note a whole batch is retried, and
+ * a @Version entity may fail the retry for the version bumped by the rolled back attempt.<br>
+ * {@link #close()} (also run on JVM shutdown) flushes what is pending.
+ * Writes are acknowledged before they reach the database: what is on the buffer is
+ * lost if the process dies.
+ * @author ccardozo
+ *
+ * @param <T> the entity
+ */
+public class WriteBehindBuffer<T> implements AutoCloseable {
+
+	private static final Logger log = Logger.getLogger(WriteBehindBuffer.class);
+
+	public static final int DEFAULT_CAPACITY = 10000;
+	public static final int DEFAULT_FLUSH_SIZE = 500;
+	public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+	public static final int DEFAULT_MAX_RETRIES = 3;
+
+	private final Supplier<? extends GenericSessionDAO<T>> daos;
+	private final EntityMetadata metadata;
+	private final String name;
+	private final int capacity;
+	private final int flushSize;
+	private final long flushIntervalNanos;
+	private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+	private final Condition flushWanted = lock.newCondition();
+	// one flush at a time, the background one or a flush() call
+	private final ReentrantLock flushLock = new ReentrantLock();
+	// the last write of each id, in the order of their first write
+	private LinkedHashMap<Serializable, Pending<T>> keyed = new LinkedHashMap<Serializable, Pending<T>>();
+	// new entities (unsaved id, null or 0), no id to coalesce on
+	private List<Pending<T>> unkeyed = new ArrayList<Pending<T>>();
+	private int inFlight;
+	private long oldestPending;
+	private boolean closed;
+
+	private final Thread flusher;
+	private final Thread shutdownHook;
+
+	private final LongAdder writes = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder flushes = new LongAdder();
+	private final LongAdder flushedRows = new LongAdder();
+	private final LongAdder failedFlushes = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LatencyHistogram flushTime = new LatencyHistogram();
+
+	/**
+	 * Buffer with the default capacity, flush size and interval
+	 * @param daos a new DAO for each flush
+	 */
+	public WriteBehindBuffer(Supplier<? extends GenericSessionDAO<T>> daos) {
+		this(daos, DEFAULT_CAPACITY, DEFAULT_FLUSH_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param daos a new DAO for each flush
+	 * @param capacity entities pending or being flushed, writes wait beyond that
+	 * @param flushSize pending entities that trigger a flush
+	 * @param flushInterval longest wait of a pending entity
+	 * @param unit of the interval
+	 */
+	public WriteBehindBuffer(Supplier<? extends GenericSessionDAO<T>> daos, int capacity, int flushSize,
+			long flushInterval, TimeUnit unit) {
+		if (capacity < 1 || flushSize < 1 || flushSize > capacity || flushInterval <= 0) {
+			throw new IllegalArgumentException("Invalid write-behind settings: capacity=" + capacity + ", flushSize="
+					+ flushSize + ", flushInterval=" + flushInterval);
+		}
+		this.daos = daos;
+		this.metadata = daos.get().getEntityMetadata();
+		this.name = metadata.getEntityName();
+		this.capacity = capacity;
+		this.flushSize = flushSize;
+		this.flushIntervalNanos = unit.toNanos(flushInterval);
+
+		this.flusher = new Thread(this::runFlusher, "sensus-write-behind-" + name);
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+		this.shutdownHook = new Thread(this::close, "sensus-write-behind-" + name + "-shutdown");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Queue a write, waiting for room if the buffer is full
+	 * @param entity
+	 * @throws DataAccessLayerException if interrupted while waiting
+	 * @throws IllegalStateException if the buffer is closed
+	 */
+	public void write(T entity) {
+		try {
+			offer(entity, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DataAccessLayerException("Interrupted waiting for room on the write-behind buffer of " + name, e);
+		}
+	}
+
+	/**
+	 * Queue a write, waiting at most the timeout for room
+	 * @param entity
+	 * @param timeout
+	 * @param unit
+	 * @return false if the buffer stayed full
+	 * @throws InterruptedException
+	 * @throws IllegalStateException if the buffer is closed
+	 */
+	public boolean offer(T entity, long timeout, TimeUnit unit) throws InterruptedException {
+		if (entity == null) {
+			throw new IllegalArgumentException("null entity");
+		}
+		Serializable id = metadata.getSavedIdentifier(entity);
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (true) {
+				if (closed) {
+					throw new IllegalStateException("Write-behind buffer of " + name + " is closed");
+				}
+				Pending<T> pending = id == null ? null : keyed.get(id);
+				if (pending != null) {
+					pending.entity = entity;
+					writes.increment();
+					coalesced.increment();
+					return true;
+				}
+				if (pendingCount() + inFlight < capacity) {
+					break;
+				}
+				if (nanos <= 0) {
+					return false;
+				}
+				nanos = notFull.awaitNanos(nanos);
+			}
+			if (pendingCount() == 0) {
+				oldestPending = System.nanoTime();
+			}
+			if (id == null) {
+				unkeyed.add(new Pending<T>(null, entity));
+			} else {
+				keyed.put(id, new Pending<T>(id, entity));
+			}
+			writes.increment();
+			if (pendingCount() >= flushSize) {
+				flushWanted.signal();
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Write what is pending now, on the caller thread
+	 * @return false if the flush failed (its entities are queued again)
+	 */
+	public boolean flush() {
+		flushLock.lock();
+		try {
+			List<Pending<T>> batch;
+			lock.lock();
+			try {
+				if (pendingCount() == 0) {
+					return true;
+				}
+				batch = new ArrayList<Pending<T>>(keyed.values());
+				batch.addAll(unkeyed);
+				keyed = new LinkedHashMap<Serializable, Pending<T>>();
+				unkeyed = new ArrayList<Pending<T>>();
+				inFlight = batch.size();
+			} finally {
+				lock.unlock();
+			}
+
+			List<T> entities = new ArrayList<T>(batch.size());
+			for (final Pending<T> pending : batch) {
+				entities.add(pending.entity);
+			}
+			final long started = System.nanoTime();
+			boolean flushed = false;
+			try {
+				daos.get().persistAll(entities);
+				flushed = true;
+				flushes.increment();
+				flushedRows.add(entities.size());
+			} catch (RuntimeException e) {
+				failedFlushes.increment();
+				log.error("Write-behind flush of " + entities.size() + " " + name + " failed, queued again", e);
+			} finally {
+				flushTime.record(System.nanoTime() - started);
+				lock.lock();
+				try {
+					if (!flushed) {
+						requeue(batch);
+					}
+				} finally {
+					inFlight = 0;
+					notFull.signalAll();
+					lock.unlock();
+				}
+			}
+			return flushed;
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	/**
+	 * Back to the buffer, unless written again meanwhile or out of retries.
+	 * Called with the lock held.
+	 */
+	private void requeue(List<Pending<T>> batch) {
+		if (pendingCount() == 0) {
+			oldestPending = System.nanoTime();
+		}
+		for (final Pending<T> pending : batch) {
+			if (++pending.attempts > maxRetries) {
+				dropped.increment();
+				log.error("Write-behind gave up " + name + "#" + pending.id + " after " + pending.attempts + " attempts");
+			} else if (pending.id != null) {
+				if (!keyed.containsKey(pending.id)) {
+					keyed.put(pending.id, pending);
+				}
+			} else {
+				// the rolled back insert may have left a generated id (and version) on it
+				metadata.resetIdentifier(pending.entity);
+				unkeyed.add(pending);
+			}
+		}
+	}
+
+	private void runFlusher() {
+		while (true) {
+			lock.lock();
+			try {
+				while (!closed && pendingCount() < flushSize
+						&& (pendingCount() == 0 || System.nanoTime() - oldestPending < flushIntervalNanos)) {
+					flushWanted.awaitNanos(pendingCount() == 0 ? flushIntervalNanos
+							: flushIntervalNanos - (System.nanoTime() - oldestPending));
+				}
+				if (closed) {
+					return;
+				}
+			} catch (InterruptedException e) {
+				return;
+			} finally {
+				lock.unlock();
+			}
+			if (!flush()) {
+				// do not spin on a failing database: wait the interval before the retry
+				try {
+					Thread.sleep(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos));
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop taking writes and flush what is pending, retrying the failures
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			flushWanted.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		boolean interrupted = false;
+		while (flusher.isAlive()) {
+			try {
+				flusher.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		for (int attempt = 0; attempt <= maxRetries && !flush(); attempt++) {
+			log.warn("Write-behind flush of " + name + " on close failed, attempt " + (attempt + 1));
+		}
+		if (Thread.currentThread() != shutdownHook) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException ignored) {
+				// already shutting down
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private int pendingCount() {
+		return keyed.size() + unkeyed.size();
+	}
+
+	/**
+	 * @param maxRetries flushes a write may fail before it is dropped
+	 */
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * @return entities pending or being flushed
+	 */
+	public int getQueueDepth() {
+		lock.lock();
+		try {
+			return pendingCount() + inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public WriteBehindStatistics getStatistics() {
+		return new WriteBehindStatistics(name, getQueueDepth(), capacity, writes.sum(), coalesced.sum(), flushes.sum(),
+				flushedRows.sum(), failedFlushes.sum(), dropped.sum(), flushTime.getPercentile(50),
+				flushTime.getPercentile(99), flushTime.getMax());
+	}
+
+	/**
+	 * A write waiting for the flush
+	 */
+	private static final class Pending<T> {
+		final Serializable id;
+		T entity;
+		int attempts;
+
+		Pending(Serializable id, T entity) {
+			this.id = id;
+			this.entity = entity;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of the counters of a {@link WriteBehindBuffer}
+ * @author ccardozo
+ *
+ */
+public class WriteBehindStatistics implements Serializable {
+
+	private static final long serialVersionUID = -3318524870473695420L;
+
+	private final String name;
+	private final int queueDepth;
+	private final int capacity;
+	private final long writes;
+	private final long coalesced;
+	private final long flushes;
+	private final long flushedRows;
+	private final long failedFlushes;
+	private final long dropped;
+	private final long flushP50;
+	private final long flushP99;
+	private final long flushMax;
+
+	WriteBehindStatistics(String name, int queueDepth, int capacity, long writes, long coalesced, long flushes,
+			long flushedRows, long failedFlushes, long dropped, long flushP50, long flushP99, long flushMax) {
+		this.name = name;
+		this.queueDepth = queueDepth;
+		this.capacity = capacity;
+		this.writes = writes;
+		this.coalesced = coalesced;
+		this.flushes = flushes;
+		this.flushedRows = flushedRows;
+		this.failedFlushes = failedFlushes;
+		this.dropped = dropped;
+		this.flushP50 = flushP50;
+		this.flushP99 = flushP99;
+		this.flushMax = flushMax;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/** @return entities waiting for the next flush */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/** @return entities handed to the buffer */
+	public long getWrites() {
+		return writes;
+	}
+
+	/** @return writes that replaced a pending one of the same id */
+	public long getCoalesced() {
+		return coalesced;
+	}
+
+	/** @return flushes committed */
+	public long getFlushes() {
+		return flushes;
+	}
+
+	public long getFlushedRows() {
+		return flushedRows;
+	}
+
+	/** @return flushes rolled back, their entities queued again */
+	public long getFailedFlushes() {
+		return failedFlushes;
+	}
+
+	/** @return entities given up after the retries */
+	public long getDropped() {
+		return dropped;
+	}
+
+	/** @return median time of a flush, in nanoseconds */
+	public long getFlushP50() {
+		return flushP50;
+	}
+
+	public long getFlushP99() {
+		return flushP99;
+	}
+
+	public long getFlushMax() {
+		return flushMax;
+	}
+
+	@Override
+	public String toString() {
+		return "WriteBehindStatistics[" + name + " depth=" + queueDepth + "/" + capacity + ", writes=" + writes
+				+ ", coalesced=" + coalesced + ", flushes=" + flushes + ", rows=" + flushedRows + ", failed="
+				+ failedFlushes + ", dropped=" + dropped + ", flush p50=" + flushP50 / 1000 + "us p99=" + flushP99 / 1000
+				+ "us max=" + flushMax / 1000 + "us]";
+	}
+}
@@ -0,0 +1,100 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.cache;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of the counters of a {@link LocalCache}
+ * @author ccardozo
+ *
+ */
+public class CacheStatistics implements Serializable {
+
+	private static final long serialVersionUID = 4190316784232951866L;
+
+	private final String name;
+	private final long hits;
+	private final long misses;
+	private final long puts;
+	private final long evictions;
+	private final long expirations;
+	private final int size;
+	private final int maxEntries;
+
+	CacheStatistics(String name, long hits, long misses, long puts, long evictions, long expirations, int size,
+			int maxEntries) {
+		this.name = name;
+		this.hits = hits;
+		this.misses = misses;
+		this.puts = puts;
+		this.evictions = evictions;
+		this.expirations = expirations;
+		this.size = size;
+		this.maxEntries = maxEntries;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return hits / (hits + misses), 0 when nothing was looked up
+	 */
+	public double getHitRatio() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	public long getPuts() {
+		return puts;
+	}
+
+	/** @return entries dropped to respect the capacity */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/** @return entries dropped for being older than the TTL */
+	public long getExpirations() {
+		return expirations;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/** @return the capacity, 0 for unbounded */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStatistics[" + name + " size=" + size + "/" + maxEntries + ", hits=" + hits + ", misses=" + misses
+				+ String.format(", hitRatio=%.3f", getHitRatio()) + ", puts=" + puts + ", evictions=" + evictions
+				+ ", expirations=" + expirations + "]";
+	}
+}
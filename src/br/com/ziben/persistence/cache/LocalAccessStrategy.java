@@ -0,0 +1,407 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.cache;
+
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.NaturalIdRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+import org.hibernate.cache.spi.access.NaturalIdRegionAccessStrategy;
+import org.hibernate.cache.spi.access.SoftLock;
+
+/**
+ * Access strategies of the local regions.<br>
+ * READ_ONLY caches on load and insert and refuses updates; NONSTRICT_READ_WRITE
+ * evicts on every write; READ_WRITE keeps soft locks in the region while an
+ * entry is being written, so a concurrent load never puts a stale value back. The
+ * locks are pinned in the cache until their timeout, neither evicted nor expired.
+ * @author ccardozo
+ *
+ */
+abstract class LocalAccessStrategy {
+
+	private static final AtomicLong nextLockId = new AtomicLong();
+
+	protected final LocalTransactionalRegion region;
+	protected final LocalCache cache;
+	protected final AccessType accessType;
+
+	LocalAccessStrategy(LocalTransactionalRegion region, AccessType accessType) {
+		if (accessType == AccessType.TRANSACTIONAL) {
+			throw new CacheException("Transactional access is not supported by the local cache (region " + region.getName() + ")");
+		}
+		this.region = region;
+		this.cache = region.getCache();
+		this.accessType = accessType;
+	}
+
+	public Object get(Object key, long txTimestamp) throws CacheException {
+		Object value = read(key, txTimestamp);
+		if (value == null) {
+			cache.miss();
+		} else {
+			cache.hit();
+		}
+		return value;
+	}
+
+	private Object read(Object key, long txTimestamp) {
+		Object entry = cache.peek(key);
+		if (accessType != AccessType.READ_WRITE) {
+			return entry;
+		}
+		if (entry instanceof Item && ((Item) entry).isReadable(txTimestamp)) {
+			return ((Item) entry).value;
+		}
+		return null;
+	}
+
+	public boolean putFromLoad(Object key, Object value, long txTimestamp, Object version) throws CacheException {
+		return putFromLoad(key, value, txTimestamp, version, region.isMinimalPutsEnabled());
+	}
+
+	public boolean putFromLoad(Object key, Object value, long txTimestamp, Object version, boolean minimalPutOverride)
+			throws CacheException {
+		synchronized (cache.lockFor(key)) {
+			Object entry = cache.peek(key);
+			if (minimalPutOverride && entry != null && !(entry instanceof Lock)) {
+				return false;
+			}
+			if (accessType != AccessType.READ_WRITE) {
+				cache.put(key, value);
+				return true;
+			}
+			if (entry == null || ((Versioned) entry).isWriteable(txTimestamp, version, comparator())) {
+				cache.put(key, new Item(value, version, region.nextTimestamp()));
+				return true;
+			}
+			return false;
+		}
+	}
+
+	public SoftLock lockItem(Object key, Object version) throws CacheException {
+		if (accessType != AccessType.READ_WRITE) {
+			return null;
+		}
+		synchronized (cache.lockFor(key)) {
+			Object entry = cache.peek(key);
+			long timeout = region.nextTimestamp() + region.getTimeout();
+			Lock lock = entry == null ? new Lock(timeout, nextLockId.incrementAndGet(), version)
+					: ((Versioned) entry).lock(timeout, nextLockId.incrementAndGet());
+			cache.put(key, lock);
+			return lock;
+		}
+	}
+
+	public void unlockItem(Object key, SoftLock lock) throws CacheException {
+		if (accessType == AccessType.NONSTRICT_READ_WRITE) {
+			cache.remove(key);
+			return;
+		}
+		if (accessType != AccessType.READ_WRITE) {
+			return;
+		}
+		synchronized (cache.lockFor(key)) {
+			Object entry = cache.peek(key);
+			if (entry instanceof Lock && entry.equals(lock)) {
+				decrementLock(key, (Lock) entry);
+			} else {
+				handleLockExpiry(key);
+			}
+		}
+	}
+
+	public SoftLock lockRegion() throws CacheException {
+		cache.clear();
+		return null;
+	}
+
+	public void unlockRegion(SoftLock lock) throws CacheException {
+		cache.clear();
+	}
+
+	public void remove(Object key) throws CacheException {
+		if (accessType != AccessType.READ_WRITE) {
+			cache.remove(key);
+		}
+	}
+
+	public void removeAll() throws CacheException {
+		cache.clear();
+	}
+
+	public void evict(Object key) throws CacheException {
+		cache.remove(key);
+	}
+
+	public void evictAll() throws CacheException {
+		cache.clear();
+	}
+
+	/**
+	 * Cache a freshly inserted value, unless a concurrent write got there first
+	 */
+	protected boolean afterInsert(Object key, Object value, Object version) {
+		if (accessType == AccessType.NONSTRICT_READ_WRITE) {
+			return false;
+		}
+		synchronized (cache.lockFor(key)) {
+			if (cache.peek(key) != null) {
+				return false;
+			}
+			cache.put(key, accessType == AccessType.READ_WRITE ? new Item(value, version, region.nextTimestamp()) : value);
+			return true;
+		}
+	}
+
+	protected boolean update(Object key) {
+		if (accessType == AccessType.READ_ONLY) {
+			throw new UnsupportedOperationException("Can't write to a readonly object in region " + region.getName());
+		}
+		if (accessType == AccessType.NONSTRICT_READ_WRITE) {
+			cache.remove(key);
+		}
+		return false;
+	}
+
+	/**
+	 * Replace the lock by the new value, unless the entry was locked again by
+	 * another transaction meanwhile
+	 */
+	protected boolean afterUpdate(Object key, Object value, Object version, SoftLock lock) {
+		if (accessType == AccessType.READ_ONLY) {
+			throw new UnsupportedOperationException("Can't write to a readonly object in region " + region.getName());
+		}
+		if (accessType == AccessType.NONSTRICT_READ_WRITE) {
+			cache.remove(key);
+			return false;
+		}
+		synchronized (cache.lockFor(key)) {
+			Object entry = cache.peek(key);
+			if (entry instanceof Lock && entry.equals(lock)) {
+				Lock current = (Lock) entry;
+				if (current.concurrent) {
+					decrementLock(key, current);
+					return false;
+				}
+				cache.put(key, new Item(value, version, region.nextTimestamp()));
+				return true;
+			}
+			handleLockExpiry(key);
+			return false;
+		}
+	}
+
+	private void decrementLock(Object key, Lock lock) {
+		lock.unlock(region.nextTimestamp());
+		cache.put(key, lock);
+	}
+
+	/**
+	 * The lock timed out or was lost: leave a released lock in place, so no
+	 * load reads or writes the entry until the timeout passes
+	 */
+	private void handleLockExpiry(Object key) {
+		long timestamp = region.nextTimestamp() + region.getTimeout();
+		Lock lock = new Lock(timestamp, nextLockId.incrementAndGet(), null);
+		lock.unlock(timestamp);
+		cache.put(key, lock);
+	}
+
+	@SuppressWarnings("rawtypes")
+	private Comparator comparator() {
+		return region.getCacheDataDescription() == null ? null : region.getCacheDataDescription().getVersionComparator();
+	}
+
+	private interface Versioned {
+		@SuppressWarnings("rawtypes")
+		boolean isWriteable(long txTimestamp, Object newVersion, Comparator comparator);
+
+		Lock lock(long timeout, long lockId);
+	}
+
+	private static final class Item implements Versioned {
+		final Object value;
+		final Object version;
+		final long timestamp;
+
+		Item(Object value, Object version, long timestamp) {
+			this.value = value;
+			this.version = version;
+			this.timestamp = timestamp;
+		}
+
+		boolean isReadable(long txTimestamp) {
+			return txTimestamp > timestamp;
+		}
+
+		@Override
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		public boolean isWriteable(long txTimestamp, Object newVersion, Comparator comparator) {
+			return version != null && newVersion != null && comparator != null && comparator.compare(version, newVersion) < 0;
+		}
+
+		@Override
+		public Lock lock(long timeout, long lockId) {
+			return new Lock(timeout, lockId, version);
+		}
+	}
+
+	private static final class Lock implements Versioned, SoftLock, LocalCache.Pinned {
+		final long lockId;
+		final Object version;
+		long timeout;
+		long unlockTimestamp;
+		int multiplicity = 1;
+		boolean concurrent;
+
+		Lock(long timeout, long lockId, Object version) {
+			this.timeout = timeout;
+			this.lockId = lockId;
+			this.version = version;
+		}
+
+		@Override
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		public boolean isWriteable(long txTimestamp, Object newVersion, Comparator comparator) {
+			if (txTimestamp > timeout) {
+				return true;
+			}
+			if (multiplicity > 0) {
+				return false;
+			}
+			return version == null || newVersion == null || comparator == null ? txTimestamp > unlockTimestamp
+					: comparator.compare(version, newVersion) < 0;
+		}
+
+		@Override
+		public Lock lock(long timeout, long lockId) {
+			concurrent = true;
+			multiplicity++;
+			this.timeout = timeout;
+			return this;
+		}
+
+		void unlock(long timestamp) {
+			if (--multiplicity == 0) {
+				unlockTimestamp = timestamp;
+			}
+		}
+
+		/**
+		 * Until the timeout a load must still find the lock, released or not
+		 */
+		@Override
+		public boolean isPinned() {
+			return System.currentTimeMillis() << LocalRegionFactory.TIMESTAMP_SHIFT <= timeout;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Lock && ((Lock) o).lockId == lockId;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (lockId ^ (lockId >>> 32));
+		}
+	}
+
+	static final class Entity extends LocalAccessStrategy implements EntityRegionAccessStrategy {
+
+		Entity(LocalTransactionalRegion.Entity region, AccessType accessType) {
+			super(region, accessType);
+		}
+
+		@Override
+		public EntityRegion getRegion() {
+			return (EntityRegion) region;
+		}
+
+		@Override
+		public boolean insert(Object key, Object value, Object version) throws CacheException {
+			return false;
+		}
+
+		@Override
+		public boolean afterInsert(Object key, Object value, Object version) throws CacheException {
+			return super.afterInsert(key, value, version);
+		}
+
+		@Override
+		public boolean update(Object key, Object value, Object currentVersion, Object previousVersion)
+				throws CacheException {
+			return update(key);
+		}
+
+		@Override
+		public boolean afterUpdate(Object key, Object value, Object currentVersion, Object previousVersion, SoftLock lock)
+				throws CacheException {
+			return afterUpdate(key, value, currentVersion, lock);
+		}
+	}
+
+	static final class Collection extends LocalAccessStrategy implements CollectionRegionAccessStrategy {
+
+		Collection(LocalTransactionalRegion.Collection region, AccessType accessType) {
+			super(region, accessType);
+		}
+
+		@Override
+		public CollectionRegion getRegion() {
+			return (CollectionRegion) region;
+		}
+	}
+
+	static final class NaturalId extends LocalAccessStrategy implements NaturalIdRegionAccessStrategy {
+
+		NaturalId(LocalTransactionalRegion.NaturalId region, AccessType accessType) {
+			super(region, accessType);
+		}
+
+		@Override
+		public NaturalIdRegion getRegion() {
+			return (NaturalIdRegion) region;
+		}
+
+		@Override
+		public boolean insert(Object key, Object value) throws CacheException {
+			return false;
+		}
+
+		@Override
+		public boolean afterInsert(Object key, Object value) throws CacheException {
+			return afterInsert(key, value, null);
+		}
+
+		@Override
+		public boolean update(Object key, Object value) throws CacheException {
+			return update(key);
+		}
+
+		@Override
+		public boolean afterUpdate(Object key, Object value, SoftLock lock) throws CacheException {
+			return afterUpdate(key, value, null, lock);
+		}
+	}
+}
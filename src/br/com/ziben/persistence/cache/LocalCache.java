@@ -0,0 +1,257 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.cache;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process cache bounded by a number of entries, with LRU eviction and an
+ * optional time to live.<br>
+ * The entries are spread by key over stripes, each an LRU of its share of the
+ * capacity under its own lock, so the lookups of different keys do not wait on
+ * each other; the eviction is LRU within a stripe. Compound operations on a key
+ * synchronize on {@link #lockFor(Object)}. The values {@link Pinned} are never
+ * evicted nor expired while pinned.
+ * @author ccardozo
+ *
+ */
+public class LocalCache {
+
+	/** stripes of a cache, fewer for the small ones so each keeps a useful LRU */
+	static final int STRIPES = 16;
+	private static final int MIN_STRIPE_ENTRIES = 64;
+
+	private final String name;
+	private final int maxEntries;
+	private final long ttlMillis;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder puts = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+
+	private final Stripe[] stripes;
+
+	/**
+	 * A value that must stay in the cache, over the capacity and the time to live,
+	 * while it is pinned: the soft locks of the READ_WRITE access
+	 */
+	interface Pinned {
+		boolean isPinned();
+	}
+
+	/**
+	 * @param name
+	 * @param maxEntries capacity, 0 for unbounded
+	 * @param ttlMillis time to live of the entries, 0 for none
+	 */
+	public LocalCache(String name, int maxEntries, long ttlMillis) {
+		this.name = name;
+		this.maxEntries = Math.max(0, maxEntries);
+		this.ttlMillis = Math.max(0, ttlMillis);
+		int count = this.maxEntries == 0 ? STRIPES : Math.max(1, Math.min(STRIPES, this.maxEntries / MIN_STRIPE_ENTRIES));
+		this.stripes = new Stripe[count];
+		for (int i = 0; i < count; i++) {
+			// the capacity split exactly: the first stripes take the remainder
+			int capacity = this.maxEntries == 0 ? 0 : this.maxEntries / count + (i < this.maxEntries % count ? 1 : 0);
+			stripes[i] = new Stripe(capacity);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param key
+	 * @return the monitor guarding the key, for the operations that read and write it atomically
+	 */
+	Object lockFor(Object key) {
+		return stripe(key);
+	}
+
+	/**
+	 * Look up a value, counting a hit or a miss
+	 * @param key
+	 * @return the value, or null if absent or expired
+	 */
+	public Object get(Object key) {
+		Object value = peek(key);
+		if (value == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return value;
+	}
+
+	/**
+	 * Look up a value without touching the hit/miss counters
+	 * @param key
+	 * @return the value, or null if absent or expired
+	 */
+	public Object peek(Object key) {
+		Stripe stripe = stripe(key);
+		synchronized (stripe) {
+			Entry entry = stripe.get(key);
+			if (entry == null) {
+				return null;
+			}
+			if (entry.isExpired(System.currentTimeMillis())) {
+				stripe.remove(key);
+				expirations.increment();
+				return null;
+			}
+			return entry.value;
+		}
+	}
+
+	public boolean containsKey(Object key) {
+		return peek(key) != null;
+	}
+
+	public void put(Object key, Object value) {
+		Stripe stripe = stripe(key);
+		synchronized (stripe) {
+			stripe.put(key, new Entry(value, ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : 0));
+		}
+		puts.increment();
+	}
+
+	public Object remove(Object key) {
+		Stripe stripe = stripe(key);
+		synchronized (stripe) {
+			Entry entry = stripe.remove(key);
+			return entry == null ? null : entry.value;
+		}
+	}
+
+	public void clear() {
+		for (final Stripe stripe : stripes) {
+			synchronized (stripe) {
+				stripe.clear();
+			}
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (final Stripe stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return a copy of the live entries
+	 */
+	public Map<Object, Object> toMap() {
+		long now = System.currentTimeMillis();
+		Map<Object, Object> copy = new HashMap<Object, Object>();
+		for (final Stripe stripe : stripes) {
+			synchronized (stripe) {
+				for (Iterator<Map.Entry<Object, Entry>> it = stripe.entrySet().iterator(); it.hasNext();) {
+					Map.Entry<Object, Entry> entry = it.next();
+					if (entry.getValue().isExpired(now)) {
+						it.remove();
+						expirations.increment();
+					} else {
+						copy.put(entry.getKey(), entry.getValue().value);
+					}
+				}
+			}
+		}
+		return copy;
+	}
+
+	void hit() {
+		hits.increment();
+	}
+
+	void miss() {
+		misses.increment();
+	}
+
+	public CacheStatistics getStatistics() {
+		return new CacheStatistics(name, hits.sum(), misses.sum(), puts.sum(), evictions.sum(), expirations.sum(),
+				size(), maxEntries);
+	}
+
+	private Stripe stripe(Object key) {
+		int hash = key.hashCode();
+		hash ^= hash >>> 16;
+		return stripes[(hash & 0x7fffffff) % stripes.length];
+	}
+
+	private static boolean isPinned(Object value) {
+		return value instanceof Pinned && ((Pinned) value).isPinned();
+	}
+
+	/**
+	 * Access-ordered map of a share of the entries, guarded by itself
+	 */
+	private final class Stripe extends LinkedHashMap<Object, Entry> {
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		Stripe(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		/**
+		 * Evict the least recently used entry not pinned; over the capacity
+		 * while everything is pinned
+		 */
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+			if (capacity == 0 || size() <= capacity) {
+				return false;
+			}
+			for (Iterator<Entry> it = values().iterator(); it.hasNext();) {
+				if (!isPinned(it.next().value)) {
+					it.remove();
+					evictions.increment();
+					break;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static final class Entry {
+		final Object value;
+		final long expiresAt;
+
+		Entry(Object value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+
+		boolean isExpired(long now) {
+			return expiresAt > 0 && now >= expiresAt && !isPinned(value);
+		}
+	}
+}
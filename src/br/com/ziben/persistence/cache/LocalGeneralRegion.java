@@ -0,0 +1,53 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.QueryResultsRegion;
+import org.hibernate.cache.spi.TimestampsRegion;
+
+/**
+ * Plain key/value region, used for query results and update timestamps
+ * @author ccardozo
+ *
+ */
+class LocalGeneralRegion extends LocalRegion implements QueryResultsRegion, TimestampsRegion {
+
+	LocalGeneralRegion(String name, LocalCache cache) {
+		super(name, cache);
+	}
+
+	@Override
+	public Object get(Object key) throws CacheException {
+		return cache.get(key);
+	}
+
+	@Override
+	public void put(Object key, Object value) throws CacheException {
+		cache.put(key, value);
+	}
+
+	@Override
+	public void evict(Object key) throws CacheException {
+		cache.remove(key);
+	}
+
+	@Override
+	public void evictAll() throws CacheException {
+		cache.clear();
+	}
+}
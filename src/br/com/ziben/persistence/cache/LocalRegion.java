@@ -0,0 +1,89 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.cache;
+
+import java.util.Map;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.Region;
+
+/**
+ * Region kept on a {@link LocalCache}
+ * @author ccardozo
+ *
+ */
+abstract class LocalRegion implements Region {
+
+	private final String name;
+	protected final LocalCache cache;
+
+	LocalRegion(String name, LocalCache cache) {
+		this.name = name;
+		this.cache = cache;
+	}
+
+	LocalCache getCache() {
+		return cache;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public void destroy() throws CacheException {
+		cache.clear();
+	}
+
+	@Override
+	public boolean contains(Object key) {
+		return cache.containsKey(key);
+	}
+
+	@Override
+	public long getSizeInMemory() {
+		// not measured
+		return -1;
+	}
+
+	@Override
+	public long getElementCountInMemory() {
+		return cache.size();
+	}
+
+	@Override
+	public long getElementCountOnDisk() {
+		return 0;
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public Map toMap() {
+		return cache.toMap();
+	}
+
+	@Override
+	public long nextTimestamp() {
+		return LocalRegionFactory.next();
+	}
+
+	@Override
+	public int getTimeout() {
+		return LocalRegionFactory.lockTimeout();
+	}
+}
@@ -0,0 +1,203 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.NaturalIdRegion;
+import org.hibernate.cache.spi.QueryResultsRegion;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.cache.spi.TimestampsRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cfg.Settings;
+
+/**
+ * Second-level cache kept in the JVM heap: each region is a {@link LocalCache}
+ * bounded by entries (LRU) with an optional TTL. Read-only, read-write and
+ * nonstrict read-write strategies are supported; transactional is not.<br>
+ * Configured by persistence.cache.max_entries and persistence.cache.ttl (seconds),
+ * which a region overrides with persistence.cache.region.&lt;region name&gt;.max_entries / .ttl.
+ * The update timestamps region is never bounded nor expired, or the query cache
+ * could return stale results.
+ * @author ccardozo
+ *
+ */
+public class LocalRegionFactory implements RegionFactory {
+
+	private static final long serialVersionUID = -3417251868813497165L;
+
+	private static final Logger log = Logger.getLogger(LocalRegionFactory.class);
+
+	public static final String PREFIX = "persistence.cache.";
+	public static final String MAX_ENTRIES = PREFIX + "max_entries";
+	public static final String TTL = PREFIX + "ttl";
+	public static final String REGION_PREFIX = PREFIX + "region.";
+
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+	/** timestamps are milliseconds shifted left 12 bits, room for 4096 per millisecond */
+	static final int TIMESTAMP_SHIFT = 12;
+	private static final int LOCK_TIMEOUT = (int) (TimeUnit.SECONDS.toMillis(60) << TIMESTAMP_SHIFT);
+	private static final AtomicLong lastTimestamp = new AtomicLong();
+
+	private final ConcurrentMap<String, LocalCache> caches = new ConcurrentHashMap<String, LocalCache>();
+	private Settings settings;
+	private Properties properties = new Properties();
+
+	@Override
+	public void start(Settings settings, Properties properties) throws CacheException {
+		this.settings = settings;
+		this.properties = properties;
+		log.info("Starting local second-level cache (max_entries=" + properties.getProperty(MAX_ENTRIES, String.valueOf(DEFAULT_MAX_ENTRIES))
+				+ ", ttl=" + properties.getProperty(TTL, "0") + "s)");
+	}
+
+	@Override
+	public void stop() {
+		for (final LocalCache cache : caches.values()) {
+			cache.clear();
+		}
+		caches.clear();
+	}
+
+	@Override
+	public boolean isMinimalPutsEnabledByDefault() {
+		return false;
+	}
+
+	@Override
+	public AccessType getDefaultAccessType() {
+		return AccessType.READ_WRITE;
+	}
+
+	@Override
+	public long nextTimestamp() {
+		return next();
+	}
+
+	/**
+	 * Increasing timestamp, unique in this JVM
+	 */
+	static long next() {
+		long candidate = System.currentTimeMillis() << TIMESTAMP_SHIFT;
+		while (true) {
+			long last = lastTimestamp.get();
+			long next = candidate > last ? candidate : last + 1;
+			if (lastTimestamp.compareAndSet(last, next)) {
+				return next;
+			}
+		}
+	}
+
+	static int lockTimeout() {
+		return LOCK_TIMEOUT;
+	}
+
+	@Override
+	public EntityRegion buildEntityRegion(String regionName, Properties properties, CacheDataDescription metadata)
+			throws CacheException {
+		return new LocalTransactionalRegion.Entity(this, regionName, cacheFor(regionName, true), metadata);
+	}
+
+	@Override
+	public NaturalIdRegion buildNaturalIdRegion(String regionName, Properties properties, CacheDataDescription metadata)
+			throws CacheException {
+		return new LocalTransactionalRegion.NaturalId(this, regionName, cacheFor(regionName, true), metadata);
+	}
+
+	@Override
+	public CollectionRegion buildCollectionRegion(String regionName, Properties properties, CacheDataDescription metadata)
+			throws CacheException {
+		return new LocalTransactionalRegion.Collection(this, regionName, cacheFor(regionName, true), metadata);
+	}
+
+	@Override
+	public QueryResultsRegion buildQueryResultsRegion(String regionName, Properties properties) throws CacheException {
+		return new LocalGeneralRegion(regionName, cacheFor(regionName, true));
+	}
+
+	@Override
+	public TimestampsRegion buildTimestampsRegion(String regionName, Properties properties) throws CacheException {
+		return new LocalGeneralRegion(regionName, cacheFor(regionName, false));
+	}
+
+	Settings getSettings() {
+		return settings;
+	}
+
+	/**
+	 * @return the counters of every region
+	 */
+	public List<CacheStatistics> getStatistics() {
+		List<CacheStatistics> statistics = new ArrayList<CacheStatistics>();
+		for (final LocalCache cache : caches.values()) {
+			statistics.add(cache.getStatistics());
+		}
+		return statistics;
+	}
+
+	/**
+	 * @param regionName
+	 * @return the counters of a region, or null if not built
+	 */
+	public CacheStatistics getStatistics(String regionName) {
+		LocalCache cache = caches.get(regionName);
+		return cache == null ? null : cache.getStatistics();
+	}
+
+	void destroy(String regionName) {
+		LocalCache cache = caches.remove(regionName);
+		if (cache != null) {
+			cache.clear();
+		}
+	}
+
+	private LocalCache cacheFor(String regionName, boolean bounded) {
+		LocalCache cache = caches.get(regionName);
+		if (cache == null) {
+			int maxEntries = bounded ? integer(regionName, "max_entries", MAX_ENTRIES, DEFAULT_MAX_ENTRIES) : 0;
+			long ttl = bounded ? TimeUnit.SECONDS.toMillis(integer(regionName, "ttl", TTL, 0)) : 0;
+			LocalCache created = new LocalCache(regionName, maxEntries, ttl);
+			cache = caches.putIfAbsent(regionName, created);
+			if (cache == null) {
+				cache = created;
+				log.debug("Region " + regionName + " max_entries=" + maxEntries + ", ttl=" + ttl + "ms");
+			}
+		}
+		return cache;
+	}
+
+	private int integer(String regionName, String suffix, String globalKey, int defaultValue) {
+		String value = properties.getProperty(REGION_PREFIX + regionName + "." + suffix, properties.getProperty(globalKey));
+		try {
+			return value == null || value.trim().isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new CacheException("Invalid " + suffix + " for region " + regionName + ": " + value, e);
+		}
+	}
+}
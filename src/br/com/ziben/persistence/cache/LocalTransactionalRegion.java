@@ -0,0 +1,101 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.NaturalIdRegion;
+import org.hibernate.cache.spi.TransactionalDataRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+import org.hibernate.cache.spi.access.NaturalIdRegionAccessStrategy;
+
+/**
+ * Region of entities, collections or natural ids, read and written
+ * through a {@link LocalAccessStrategy}
+ * @author ccardozo
+ *
+ */
+abstract class LocalTransactionalRegion extends LocalRegion implements TransactionalDataRegion {
+
+	private final LocalRegionFactory factory;
+	private final CacheDataDescription metadata;
+
+	LocalTransactionalRegion(LocalRegionFactory factory, String name, LocalCache cache, CacheDataDescription metadata) {
+		super(name, cache);
+		this.factory = factory;
+		this.metadata = metadata;
+	}
+
+	@Override
+	public boolean isTransactionAware() {
+		return false;
+	}
+
+	@Override
+	public CacheDataDescription getCacheDataDescription() {
+		return metadata;
+	}
+
+	@Override
+	public void destroy() throws CacheException {
+		factory.destroy(getName());
+	}
+
+	boolean isMinimalPutsEnabled() {
+		return factory.getSettings() != null && factory.getSettings().isMinimalPutsEnabled();
+	}
+
+	static final class Entity extends LocalTransactionalRegion implements EntityRegion {
+
+		Entity(LocalRegionFactory factory, String name, LocalCache cache, CacheDataDescription metadata) {
+			super(factory, name, cache, metadata);
+		}
+
+		@Override
+		public EntityRegionAccessStrategy buildAccessStrategy(AccessType accessType) throws CacheException {
+			return new LocalAccessStrategy.Entity(this, accessType);
+		}
+	}
+
+	static final class Collection extends LocalTransactionalRegion implements CollectionRegion {
+
+		Collection(LocalRegionFactory factory, String name, LocalCache cache, CacheDataDescription metadata) {
+			super(factory, name, cache, metadata);
+		}
+
+		@Override
+		public CollectionRegionAccessStrategy buildAccessStrategy(AccessType accessType) throws CacheException {
+			return new LocalAccessStrategy.Collection(this, accessType);
+		}
+	}
+
+	static final class NaturalId extends LocalTransactionalRegion implements NaturalIdRegion {
+
+		NaturalId(LocalRegionFactory factory, String name, LocalCache cache, CacheDataDescription metadata) {
+			super(factory, name, cache, metadata);
+		}
+
+		@Override
+		public NaturalIdRegionAccessStrategy buildAccessStrategy(AccessType accessType) throws CacheException {
+			return new LocalAccessStrategy.NaturalId(this, accessType);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Calls, errors, rows and latency of the DAO operations, per entity and operation.<br>
+ * Each {@link OperationMetrics} is registered as an MXBean
+ * (br.com.ziben.persistence:type=DaoMetrics,entity=...,operation=...) when first recorded,
+ * and the whole set can be pushed to a {@link MetricsReporter}. When disabled
+ * (system property persistence.metrics.enabled=false or {@link #setEnabled(boolean)}),
+ * an operation costs one volatile read.
+ * @author ccardozo
+ *
+ */
+public final class DaoMetrics {
+
+	private static final Logger log = Logger.getLogger(DaoMetrics.class);
+
+	public static final String ENABLED_PROPERTY = "persistence.metrics.enabled";
+	public static final String JMX_PROPERTY = "persistence.metrics.jmx";
+	public static final String JMX_DOMAIN = "br.com.ziben.persistence";
+
+	/** returned by {@link #start()} when disabled, nothing is recorded for it */
+	public static final long NOT_STARTED = Long.MIN_VALUE;
+
+	private static volatile boolean enabled = Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+	private static final boolean jmx = Boolean.parseBoolean(System.getProperty(JMX_PROPERTY, "true"));
+
+	private static final ConcurrentMap<Class<?>, ConcurrentMap<String, OperationMetrics>> metrics =
+			new ConcurrentHashMap<Class<?>, ConcurrentMap<String, OperationMetrics>>();
+
+	private static ScheduledExecutorService reporter;
+
+	private DaoMetrics() {
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(boolean enabled) {
+		DaoMetrics.enabled = enabled;
+	}
+
+	/**
+	 * @return the start of an operation, to hand to {@link #success} or {@link #failure}
+	 */
+	public static long start() {
+		return enabled ? System.nanoTime() : NOT_STARTED;
+	}
+
+	/**
+	 * @param entity
+	 * @param operation
+	 * @param started what {@link #start()} returned
+	 * @param rows rows read or written, negative if not applicable
+	 */
+	public static void success(Class<?> entity, String operation, long started, long rows) {
+		if (started != NOT_STARTED) {
+			metricsOf(entity, operation).record(System.nanoTime() - started, rows, false);
+		}
+	}
+
+	public static void failure(Class<?> entity, String operation, long started) {
+		if (started != NOT_STARTED) {
+			metricsOf(entity, operation).record(System.nanoTime() - started, -1, true);
+		}
+	}
+
+	/**
+	 * @return the metrics of an operation, null if never recorded
+	 */
+	public static OperationMetrics get(Class<?> entity, String operation) {
+		ConcurrentMap<String, OperationMetrics> operations = metrics.get(entity);
+		return operations == null ? null : operations.get(operation);
+	}
+
+	/**
+	 * @return the metrics of every operation recorded
+	 */
+	public static List<OperationMetrics> getAll() {
+		List<OperationMetrics> all = new ArrayList<OperationMetrics>();
+		for (final ConcurrentMap<String, OperationMetrics> operations : metrics.values()) {
+			all.addAll(operations.values());
+		}
+		return all;
+	}
+
+	/**
+	 * Zero every counter and histogram
+	 */
+	public static void reset() {
+		for (final OperationMetrics operation : getAll()) {
+			operation.reset();
+		}
+	}
+
+	/**
+	 * Hand the metrics to a reporter periodically, on a daemon thread; replaces the previous reporter
+	 * @param metricsReporter
+	 * @param period
+	 * @param unit
+	 */
+	public static synchronized void startReporter(final MetricsReporter metricsReporter, long period, TimeUnit unit) {
+		stopReporter();
+		reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "sensus-metrics-reporter");
+			thread.setDaemon(true);
+			return thread;
+		});
+		reporter.scheduleAtFixedRate(() -> {
+			try {
+				metricsReporter.report(getAll());
+			} catch (RuntimeException e) {
+				log.error("Metrics reporter failed", e);
+			}
+		}, period, period, unit);
+	}
+
+	public static synchronized void stopReporter() {
+		if (reporter != null) {
+			reporter.shutdownNow();
+			reporter = null;
+		}
+	}
+
+	private static OperationMetrics metricsOf(Class<?> entity, String operation) {
+		ConcurrentMap<String, OperationMetrics> operations = metrics.get(entity);
+		if (operations == null) {
+			ConcurrentMap<String, OperationMetrics> created = new ConcurrentHashMap<String, OperationMetrics>();
+			operations = metrics.putIfAbsent(entity, created);
+			if (operations == null) {
+				operations = created;
+			}
+		}
+		OperationMetrics operationMetrics = operations.get(operation);
+		if (operationMetrics == null) {
+			OperationMetrics created = new OperationMetrics(entity.getName(), operation);
+			operationMetrics = operations.putIfAbsent(operation, created);
+			if (operationMetrics == null) {
+				operationMetrics = created;
+				register(created);
+			}
+		}
+		return operationMetrics;
+	}
+
+	private static void register(OperationMetrics operationMetrics) {
+		if (!jmx) {
+			return;
+		}
+		try {
+			ObjectName name = new ObjectName(JMX_DOMAIN + ":type=DaoMetrics,entity=" + operationMetrics.getEntity()
+					+ ",operation=" + operationMetrics.getOperation());
+			if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(operationMetrics, name);
+			}
+		} catch (JMException e) {
+			log.warn("Impossible to register the metrics of " + operationMetrics.getEntity() + "."
+					+ operationMetrics.getOperation() + " on JMX", e);
+		}
+	}
+}
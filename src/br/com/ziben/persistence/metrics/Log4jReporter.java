@@ -0,0 +1,43 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.metrics;
+
+import java.util.Collection;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Logs one line per operation called, at INFO
+ * @author ccardozo
+ *
+ */
+public class Log4jReporter implements MetricsReporter {
+
+	private static final Logger log = Logger.getLogger(Log4jReporter.class);
+
+	@Override
+	public void report(Collection<OperationMetrics> metrics) {
+		if (!log.isInfoEnabled()) {
+			return;
+		}
+		for (final OperationMetrics operation : metrics) {
+			if (operation.getCalls() > 0) {
+				log.info(operation);
+			}
+		}
+	}
+}
@@ -0,0 +1,32 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.metrics;
+
+import java.util.Collection;
+
+/**
+ * Receives the DAO metrics periodically, see {@link DaoMetrics#startReporter(MetricsReporter, long, java.util.concurrent.TimeUnit)}
+ * @author ccardozo
+ *
+ */
+public interface MetricsReporter {
+
+	/**
+	 * @param metrics of every operation recorded so far
+	 */
+	void report(Collection<OperationMetrics> metrics);
+}
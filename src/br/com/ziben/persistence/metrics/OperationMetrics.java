@@ -0,0 +1,121 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Calls, errors, rows and latency of one DAO operation on one entity.
+ * Recording never locks.
+ * @author ccardozo
+ *
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+
+	private final String entity;
+	private final String operation;
+
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder rows = new LongAdder();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	OperationMetrics(String entity, String operation) {
+		this.entity = entity;
+		this.operation = operation;
+	}
+
+	/**
+	 * @param nanos time spent
+	 * @param rowCount rows read or written, negative if not applicable
+	 * @param failed
+	 */
+	void record(long nanos, long rowCount, boolean failed) {
+		calls.increment();
+		if (failed) {
+			errors.increment();
+		}
+		if (rowCount > 0) {
+			rows.add(rowCount);
+		}
+		latency.record(nanos);
+	}
+
+	@Override
+	public String getEntity() {
+		return entity;
+	}
+
+	@Override
+	public String getOperation() {
+		return operation;
+	}
+
+	@Override
+	public long getCalls() {
+		return calls.sum();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	@Override
+	public long getRows() {
+		return rows.sum();
+	}
+
+	@Override
+	public long getP50Micros() {
+		return TimeUnit.NANOSECONDS.toMicros(latency.getPercentile(50));
+	}
+
+	@Override
+	public long getP99Micros() {
+		return TimeUnit.NANOSECONDS.toMicros(latency.getPercentile(99));
+	}
+
+	@Override
+	public long getMaxMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(latency.getMax());
+	}
+
+	@Override
+	public double getMeanMicros() {
+		return latency.getMean() / 1000.0;
+	}
+
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	@Override
+	public void reset() {
+		calls.reset();
+		errors.reset();
+		rows.reset();
+		latency.reset();
+	}
+
+	@Override
+	public String toString() {
+		return entity + "." + operation + "[calls=" + getCalls() + ", errors=" + getErrors() + ", rows=" + getRows()
+				+ ", p50=" + getP50Micros() + "us p99=" + getP99Micros() + "us max=" + getMaxMicros() + "us]";
+	}
+}
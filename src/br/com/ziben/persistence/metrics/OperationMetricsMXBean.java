@@ -0,0 +1,45 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.metrics;
+
+/**
+ * JMX view of the {@link OperationMetrics} of a DAO operation on an entity
+ * @author ccardozo
+ *
+ */
+public interface OperationMetricsMXBean {
+
+	String getEntity();
+
+	String getOperation();
+
+	long getCalls();
+
+	long getErrors();
+
+	long getRows();
+
+	long getP50Micros();
+
+	long getP99Micros();
+
+	long getMaxMicros();
+
+	double getMeanMicros();
+
+	void reset();
+}
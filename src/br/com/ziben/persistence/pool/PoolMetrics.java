@@ -0,0 +1,118 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.pool;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of the connection pool state; acquire times are in nanoseconds
+ * @author ccardozo
+ *
+ */
+public class PoolMetrics implements Serializable {
+
+	private static final long serialVersionUID = -6051923914726203581L;
+
+	private final String poolName;
+	private final int active;
+	private final int idle;
+	private final int total;
+	private final int waiters;
+	private final int maxSize;
+	private final long acquireCount;
+	private final long acquireTimeouts;
+	private final long acquireP50;
+	private final long acquireP99;
+	private final long acquireP999;
+	private final long acquireMax;
+
+	PoolMetrics(String poolName, int active, int idle, int total, int waiters, int maxSize, long acquireCount,
+			long acquireTimeouts, long acquireP50, long acquireP99, long acquireP999, long acquireMax) {
+		this.poolName = poolName;
+		this.active = active;
+		this.idle = idle;
+		this.total = total;
+		this.waiters = waiters;
+		this.maxSize = maxSize;
+		this.acquireCount = acquireCount;
+		this.acquireTimeouts = acquireTimeouts;
+		this.acquireP50 = acquireP50;
+		this.acquireP99 = acquireP99;
+		this.acquireP999 = acquireP999;
+		this.acquireMax = acquireMax;
+	}
+
+	public String getPoolName() {
+		return poolName;
+	}
+
+	/** @return connections lent to the application */
+	public int getActive() {
+		return active;
+	}
+
+	/** @return connections sitting on the pool */
+	public int getIdle() {
+		return idle;
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	/** @return threads waiting for a connection */
+	public int getWaiters() {
+		return waiters;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getAcquireCount() {
+		return acquireCount;
+	}
+
+	/** @return acquisitions given up after the acquire timeout */
+	public long getAcquireTimeouts() {
+		return acquireTimeouts;
+	}
+
+	public long getAcquireP50() {
+		return acquireP50;
+	}
+
+	public long getAcquireP99() {
+		return acquireP99;
+	}
+
+	public long getAcquireP999() {
+		return acquireP999;
+	}
+
+	public long getAcquireMax() {
+		return acquireMax;
+	}
+
+	@Override
+	public String toString() {
+		return "PoolMetrics[" + poolName + " active=" + active + ", idle=" + idle + ", total=" + total + "/" + maxSize
+				+ ", waiters=" + waiters + ", acquires=" + acquireCount + ", timeouts=" + acquireTimeouts
+				+ ", acquire p50=" + acquireP50 / 1000 + "us p99=" + acquireP99 / 1000 + "us p99.9=" + acquireP999 / 1000
+				+ "us max=" + acquireMax / 1000 + "us]";
+	}
+}
@@ -0,0 +1,233 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.pool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.Stoppable;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import br.com.ziben.persistence.metrics.LatencyHistogram;
+
+/**
+ * Hibernate ConnectionProvider backed by a HikariCP pool, configured from the
+ * same file as the factory: the hibernate.connection.* properties for the
+ * connection itself and the persistence.pool.* ones for the pool.
+ * HibernateFactory installs it when no datasource nor provider is configured.
+ * @author ccardozo
+ *
+ */
+public class PooledConnectionProvider implements ConnectionProvider, Configurable, Stoppable {
+
+	private static final long serialVersionUID = 3848172203316150275L;
+
+	private static final Logger log = Logger.getLogger(PooledConnectionProvider.class);
+
+	public static final String PREFIX = "persistence.pool.";
+	/** false to keep Hibernate default connection handling */
+	public static final String ENABLED = PREFIX + "enabled";
+	public static final String NAME = PREFIX + "name";
+	public static final String MIN_SIZE = PREFIX + "min_size";
+	public static final String MAX_SIZE = PREFIX + "max_size";
+	/** seconds an idle connection above min_size is kept */
+	public static final String IDLE_TIMEOUT = PREFIX + "idle_timeout";
+	/** seconds a connection lives before being replaced */
+	public static final String MAX_LIFETIME = PREFIX + "max_lifetime";
+	/** milliseconds a thread waits for a connection before failing */
+	public static final String ACQUIRE_TIMEOUT = PREFIX + "acquire_timeout";
+	/** milliseconds to validate a connection */
+	public static final String VALIDATION_TIMEOUT = PREFIX + "validation_timeout";
+	/** validation query, only for drivers without JDBC4 Connection.isValid() */
+	public static final String TEST_QUERY = PREFIX + "test_query";
+	/** milliseconds out of the pool before a connection is logged as a leak, 0 disables */
+	public static final String LEAK_DETECTION_THRESHOLD = PREFIX + "leak_detection_threshold";
+
+	// hibernate.connection.* handled here, the others go to the driver
+	private static final Set<String> SPECIAL_PROPERTIES = new HashSet<String>(Arrays.asList(AvailableSettings.DRIVER,
+			AvailableSettings.URL, AvailableSettings.USER, AvailableSettings.PASS, AvailableSettings.ISOLATION,
+			AvailableSettings.AUTOCOMMIT, AvailableSettings.CONNECTION_PROVIDER, AvailableSettings.DATASOURCE,
+			AvailableSettings.POOL_SIZE, AvailableSettings.RELEASE_CONNECTIONS, "hibernate.connection.provider_disables_autocommit"));
+
+	private HikariDataSource dataSource;
+	private final LatencyHistogram acquireTime = new LatencyHistogram();
+	private final LongAdder acquireTimeouts = new LongAdder();
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public void configure(Map settings) {
+		HikariConfig config = new HikariConfig();
+		config.setPoolName(string(settings, NAME, "sensus-pool"));
+		if (settings.get(AvailableSettings.DRIVER) != null) {
+			config.setDriverClassName(string(settings, AvailableSettings.DRIVER, null));
+		}
+		config.setJdbcUrl(string(settings, AvailableSettings.URL, null));
+		config.setUsername(string(settings, AvailableSettings.USER, null));
+		config.setPassword(string(settings, AvailableSettings.PASS, null));
+		config.setAutoCommit(Boolean.parseBoolean(string(settings, AvailableSettings.AUTOCOMMIT, "false")));
+		String isolation = string(settings, AvailableSettings.ISOLATION, null);
+		if (isolation != null) {
+			config.setTransactionIsolation(isolation.matches("\\d+") ? isolationName(Integer.parseInt(isolation)) : isolation);
+		}
+		for (final Object key : settings.keySet()) {
+			String name = key.toString();
+			if (name.startsWith(AvailableSettings.CONNECTION_PREFIX + ".") && !SPECIAL_PROPERTIES.contains(name)) {
+				config.addDataSourceProperty(name.substring(AvailableSettings.CONNECTION_PREFIX.length() + 1), settings.get(key));
+			}
+		}
+
+		int maxSize = integer(settings, MAX_SIZE, 10);
+		config.setMaximumPoolSize(maxSize);
+		config.setMinimumIdle(Math.min(maxSize, integer(settings, MIN_SIZE, 2)));
+		config.setIdleTimeout(TimeUnit.SECONDS.toMillis(integer(settings, IDLE_TIMEOUT, 600)));
+		config.setMaxLifetime(TimeUnit.SECONDS.toMillis(integer(settings, MAX_LIFETIME, 1800)));
+		config.setConnectionTimeout(integer(settings, ACQUIRE_TIMEOUT, 30000));
+		config.setValidationTimeout(integer(settings, VALIDATION_TIMEOUT, 5000));
+		config.setConnectionTestQuery(string(settings, TEST_QUERY, null));
+		config.setLeakDetectionThreshold(integer(settings, LEAK_DETECTION_THRESHOLD, 0));
+
+		log.info("Starting connection pool " + config.getPoolName() + " on " + config.getJdbcUrl() + " (min="
+				+ config.getMinimumIdle() + ", max=" + maxSize + ")");
+		try {
+			dataSource = new HikariDataSource(config);
+		} catch (RuntimeException e) {
+			throw new HibernateException("Impossible to start the connection pool " + config.getPoolName(), e);
+		}
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		long start = System.nanoTime();
+		try {
+			return dataSource.getConnection();
+		} catch (SQLTransientConnectionException e) {
+			acquireTimeouts.increment();
+			throw e;
+		} finally {
+			acquireTime.record(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public void closeConnection(Connection conn) throws SQLException {
+		conn.close();
+	}
+
+	@Override
+	public boolean supportsAggressiveRelease() {
+		return false;
+	}
+
+	/**
+	 * @return the current state of the pool
+	 */
+	public PoolMetrics getMetrics() {
+		HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+		return new PoolMetrics(dataSource.getPoolName(),
+				pool == null ? 0 : pool.getActiveConnections(),
+				pool == null ? 0 : pool.getIdleConnections(),
+				pool == null ? 0 : pool.getTotalConnections(),
+				pool == null ? 0 : pool.getThreadsAwaitingConnection(),
+				dataSource.getMaximumPoolSize(),
+				acquireTime.getCount(), acquireTimeouts.sum(),
+				acquireTime.getPercentile(50), acquireTime.getPercentile(99), acquireTime.getPercentile(99.9),
+				acquireTime.getMax());
+	}
+
+	/**
+	 * @return the latencies of getConnection(), in nanoseconds
+	 */
+	public LatencyHistogram getAcquireTime() {
+		return acquireTime;
+	}
+
+	@Override
+	public void stop() {
+		if (dataSource != null) {
+			log.info("Stopping connection pool " + dataSource.getPoolName());
+			dataSource.close();
+		}
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public boolean isUnwrappableAs(Class unwrapType) {
+		return ConnectionProvider.class.equals(unwrapType) || PooledConnectionProvider.class.isAssignableFrom(unwrapType)
+				|| DataSource.class.isAssignableFrom(unwrapType);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T unwrap(Class<T> unwrapType) {
+		if (ConnectionProvider.class.equals(unwrapType) || PooledConnectionProvider.class.isAssignableFrom(unwrapType)) {
+			return (T) this;
+		}
+		if (DataSource.class.isAssignableFrom(unwrapType)) {
+			return (T) dataSource;
+		}
+		throw new UnknownUnwrapTypeException(unwrapType);
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static String string(Map settings, String key, String defaultValue) {
+		Object value = settings.get(key);
+		return value == null || value.toString().trim().isEmpty() ? defaultValue : value.toString().trim();
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static int integer(Map settings, String key, int defaultValue) {
+		String value = string(settings, key, null);
+		try {
+			return value == null ? defaultValue : Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new HibernateException("Invalid value for " + key + ": " + value, e);
+		}
+	}
+
+	private static String isolationName(int level) {
+		switch (level) {
+		case Connection.TRANSACTION_READ_UNCOMMITTED:
+			return "TRANSACTION_READ_UNCOMMITTED";
+		case Connection.TRANSACTION_READ_COMMITTED:
+			return "TRANSACTION_READ_COMMITTED";
+		case Connection.TRANSACTION_REPEATABLE_READ:
+			return "TRANSACTION_REPEATABLE_READ";
+		case Connection.TRANSACTION_SERIALIZABLE:
+			return "TRANSACTION_SERIALIZABLE";
+		default:
+			return "TRANSACTION_NONE";
+		}
+	}
+}
@@ -0,0 +1,441 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.spool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Append-only journal on memory-mapped segment files. A record is
+ * [length][crc32][payload]; a zero length marks the end of the written part of a
+ * segment, which are zero-filled when created. Appends copy into the mapping, so they
+ * survive the crash of the process (not of the machine, unless {@link #force()}).<br>
+ * A single reader reads from a {@link Position} and, once done with the records,
+ * moves the checkpoint past them: the fully read segments are deleted. On open the
+ * tail segment is scanned up to the last valid record, and anything after it, a
+ * record torn by a crash, is cleared.<br>
+ * Segments are named segment-&lt;sequence&gt;.spool; the checkpoint is the file checkpoint.
+ * @author ccardozo
+ *
+ */
+public final class Journal implements Closeable {
+
+	private static final Logger log = Logger.getLogger(Journal.class);
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private static final int MAGIC = 0x53504c31; // SPL1
+	private static final int HEADER = 8;
+	private static final int RECORD_HEADER = 8;
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".spool";
+	private static final String CHECKPOINT = "checkpoint";
+
+	private final File directory;
+	private final int segmentSize;
+	private final ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<Long, Segment>();
+	// not a monitor: appends may block on page faults
+	private final ReentrantLock appendLock = new ReentrantLock();
+
+	private Segment tail;
+	private int tailOffset;
+	// end of the last complete record, published after it is written
+	private volatile Position writeMark;
+	private volatile Position checkpoint;
+	private volatile boolean closed;
+
+	private Journal(File directory, int segmentSize) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Open the journal on a directory, creating it or recovering what is there
+	 * @param directory
+	 * @param segmentSize bytes of each new segment, the largest record is a bit smaller
+	 * @return the journal, positioned after its last valid record
+	 * @throws IOException
+	 */
+	public static Journal open(File directory, int segmentSize) throws IOException {
+		if (segmentSize < 4096) {
+			throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Can not create the journal directory " + directory);
+		}
+		Journal journal = new Journal(directory, segmentSize);
+		journal.recover();
+		return journal;
+	}
+
+	private void recover() throws IOException {
+		List<Long> sequences = new ArrayList<Long>();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				String name = file.getName();
+				if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+					sequences.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+				}
+			}
+		}
+		Collections.sort(sequences);
+
+		Position saved = readCheckpoint();
+		for (final Long sequence : sequences) {
+			if (saved != null && sequence < saved.segment) {
+				// read before the crash, not yet deleted
+				Files.deleteIfExists(segmentFile(sequence).toPath());
+			} else {
+				segments.put(sequence, Segment.map(segmentFile(sequence), sequence, 0));
+			}
+		}
+		if (segments.isEmpty()) {
+			long first = saved == null ? 0 : saved.segment;
+			segments.put(first, Segment.map(segmentFile(first), first, segmentSize));
+		}
+		if (saved == null || saved.segment < segments.firstKey()) {
+			saved = new Position(segments.firstKey(), HEADER);
+		}
+		checkpoint = saved;
+
+		tail = segments.lastEntry().getValue();
+		tailOffset = scan(tail);
+		writeMark = new Position(tail.sequence, tailOffset);
+		log.info("Journal " + directory + " opened: " + segments.size() + " segments, checkpoint " + checkpoint
+				+ ", end " + writeMark + ", " + getBacklogBytes() + " bytes to read");
+	}
+
+	/**
+	 * @return the end of the last valid record of the segment, clearing what follows it
+	 */
+	private static int scan(Segment segment) {
+		ByteBuffer buffer = segment.buffer;
+		int offset = HEADER;
+		while (true) {
+			byte[] payload = recordAt(buffer, offset);
+			if (payload == null) {
+				break;
+			}
+			offset += RECORD_HEADER + payload.length;
+		}
+		for (int i = offset; i < buffer.capacity(); i++) {
+			if (buffer.get(i) != 0) {
+				log.warn("Journal segment " + segment.file + ": torn record at " + offset + " cleared");
+				for (int j = offset; j < buffer.capacity(); j++) {
+					buffer.put(j, (byte) 0);
+				}
+				break;
+			}
+		}
+		return offset;
+	}
+
+	/**
+	 * @return the payload of the record at the offset, null if there is none or it is not valid
+	 */
+	private static byte[] recordAt(ByteBuffer buffer, int offset) {
+		if (offset + RECORD_HEADER > buffer.capacity()) {
+			return null;
+		}
+		int length = buffer.getInt(offset);
+		if (length <= 0 || length > buffer.capacity() - offset - RECORD_HEADER) {
+			return null;
+		}
+		int crc = buffer.getInt(offset + 4);
+		byte[] payload = new byte[length];
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset + RECORD_HEADER);
+		view.get(payload);
+		return crc(payload) == crc ? payload : null;
+	}
+
+	/**
+	 * Append a record
+	 * @param payload
+	 * @throws IOException if a new segment can not be created
+	 */
+	public void append(byte[] payload) throws IOException {
+		int needed = RECORD_HEADER + payload.length;
+		if (payload.length == 0 || needed > segmentSize - HEADER) {
+			throw new IllegalArgumentException("Record of " + payload.length + " bytes, must be 1 to "
+					+ (segmentSize - HEADER - RECORD_HEADER));
+		}
+		int crc = crc(payload);
+		appendLock.lock();
+		try {
+			if (closed) {
+				throw new IOException("Journal " + directory + " is closed");
+			}
+			if (tailOffset + needed > tail.buffer.capacity()) {
+				long next = tail.sequence + 1;
+				tail = Segment.map(segmentFile(next), next, segmentSize);
+				segments.put(next, tail);
+				tailOffset = HEADER;
+			}
+			ByteBuffer view = tail.buffer.duplicate();
+			view.position(tailOffset + RECORD_HEADER);
+			view.put(payload);
+			tail.buffer.putInt(tailOffset + 4, crc);
+			// the length last: a record is not there until it is complete
+			tail.buffer.putInt(tailOffset, payload.length);
+			tailOffset += needed;
+			writeMark = new Position(tail.sequence, tailOffset);
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	/**
+	 * Read the records after a position
+	 * @param from where to start, the checkpoint or the end of a previous read
+	 * @param maxRecords
+	 * @return the records read and the position after them
+	 */
+	public Batch read(Position from, int maxRecords) {
+		Position end = writeMark;
+		List<byte[]> records = new ArrayList<byte[]>();
+		long sequence = from.segment;
+		int offset = from.offset;
+		while (records.size() < maxRecords && (sequence < end.segment || offset < end.offset)) {
+			Segment segment = segments.get(sequence);
+			byte[] payload = segment == null ? null : recordAt(segment.buffer, offset);
+			if (payload == null) {
+				if (sequence >= end.segment) {
+					log.error("Journal " + directory + ": invalid record at " + new Position(sequence, offset) + ", before the end " + end);
+					break;
+				}
+				// end of a finished segment
+				if (segment != null && offset + 4 <= segment.buffer.capacity() && segment.buffer.getInt(offset) != 0) {
+					log.error("Journal " + segment.file + ": invalid record at " + offset + ", the rest of the segment is skipped");
+				}
+				Map.Entry<Long, Segment> next = segments.higherEntry(sequence);
+				if (next == null) {
+					break;
+				}
+				sequence = next.getKey();
+				offset = HEADER;
+				continue;
+			}
+			records.add(payload);
+			offset += RECORD_HEADER + payload.length;
+		}
+		return new Batch(records, new Position(sequence, offset));
+	}
+
+	/**
+	 * Everything before the position was consumed: save it and delete the segments before it
+	 * @param position
+	 * @throws IOException if the checkpoint can not be saved
+	 */
+	public void checkpoint(Position position) throws IOException {
+		File temporary = new File(directory, CHECKPOINT + ".tmp");
+		ByteBuffer data = ByteBuffer.allocate(16);
+		data.putLong(position.segment).putInt(position.offset);
+		data.putInt(crc(Arrays.copyOf(data.array(), 12)));
+		Files.write(temporary.toPath(), data.array());
+		Files.move(temporary.toPath(), new File(directory, CHECKPOINT).toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		checkpoint = position;
+		while (!segments.isEmpty() && segments.firstKey() < position.segment) {
+			Map.Entry<Long, Segment> first = segments.pollFirstEntry();
+			Files.deleteIfExists(first.getValue().file.toPath());
+		}
+	}
+
+	private Position readCheckpoint() throws IOException {
+		File file = new File(directory, CHECKPOINT);
+		if (!file.exists()) {
+			return null;
+		}
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		if (bytes.length != 16 || crc(Arrays.copyOf(bytes, 12)) != ByteBuffer.wrap(bytes).getInt(12)) {
+			log.error("Journal " + directory + ": invalid checkpoint, reading from the first segment");
+			return null;
+		}
+		ByteBuffer data = ByteBuffer.wrap(bytes);
+		return new Position(data.getLong(), data.getInt());
+	}
+
+	/**
+	 * Write the mapped pages of the unread segments to the disk
+	 */
+	public void force() {
+		for (final Segment segment : segments.values()) {
+			segment.buffer.force();
+		}
+	}
+
+	/**
+	 * @return the position after the last record
+	 */
+	public Position getEnd() {
+		return writeMark;
+	}
+
+	public Position getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * @return bytes between the checkpoint and the end, counting whole segments in between
+	 */
+	public long getBacklogBytes() {
+		Position start = checkpoint;
+		Position end = writeMark;
+		if (start.segment == end.segment) {
+			return Math.max(0, end.offset - start.offset);
+		}
+		return (end.segment - start.segment) * segmentSize + end.offset - start.offset;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Force the pages and stop taking appends; the files stay for the next open
+	 */
+	@Override
+	public void close() {
+		appendLock.lock();
+		try {
+			if (!closed) {
+				closed = true;
+				force();
+			}
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	private File segmentFile(long sequence) {
+		return new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+	}
+
+	private static int crc(byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * A place in the journal: a segment and an offset in it
+	 */
+	public static final class Position {
+		final long segment;
+		final int offset;
+
+		Position(long segment, int offset) {
+			this.segment = segment;
+			this.offset = offset;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Position && ((Position) other).segment == segment && ((Position) other).offset == offset;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(segment) * 31 + offset;
+		}
+
+		@Override
+		public String toString() {
+			return segment + ":" + offset;
+		}
+	}
+
+	/**
+	 * Records read and where the next read starts
+	 */
+	public static final class Batch {
+		private final List<byte[]> records;
+		private final Position end;
+
+		Batch(List<byte[]> records, Position end) {
+			this.records = records;
+			this.end = end;
+		}
+
+		public List<byte[]> getRecords() {
+			return records;
+		}
+
+		public Position getEnd() {
+			return end;
+		}
+
+		public boolean isEmpty() {
+			return records.isEmpty();
+		}
+	}
+
+	/**
+	 * A segment file and its mapping, kept until the file is deleted
+	 */
+	private static final class Segment {
+		final long sequence;
+		final File file;
+		final MappedByteBuffer buffer;
+
+		private Segment(long sequence, File file, MappedByteBuffer buffer) {
+			this.sequence = sequence;
+			this.file = file;
+			this.buffer = buffer;
+		}
+
+		/**
+		 * @param size of a new segment, 0 to map an existing one
+		 */
+		static Segment map(File file, long sequence, int size) throws IOException {
+			boolean created = size > 0;
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+				if (created) {
+					raf.setLength(size);
+				}
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+				if (created) {
+					buffer.putInt(0, MAGIC);
+					buffer.putInt(4, size);
+				} else if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC) {
+					throw new IOException(file + " is not a journal segment");
+				}
+				return new Segment(sequence, file, buffer);
+			}
+		}
+	}
+}
@@ -0,0 +1,247 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.sql;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.hibernate.HibernateException;
+
+/**
+ * Times every JDBC execution of the connections it wraps, aggregates them by
+ * {@link SqlFingerprint} and logs, at WARN, the ones over the slow threshold with
+ * their rows, the DAO method that ran them and, if enabled, the bind values.<br>
+ * The aggregates roll over each window: {@link #getTop()} ranks the current one by
+ * total time, {@link #getPreviousTop()} the last complete one.<br>
+ * Configured by the persistence.sql.* properties of the factory; HibernateFactory wraps
+ * its ConnectionProvider in a {@link TimedConnectionProvider} when persistence.sql.timing
+ * is true. It is off by default:
+ * every call on the connections, statements and result sets then goes through a dynamic
+ * proxy, a cost on the hot path of the reads meant for the diagnosis.
+ * @author ccardozo
+ *
+ */
+public class SlowQueryLog {
+
+	private static final Logger log = Logger.getLogger(SlowQueryLog.class);
+
+	public static final String PREFIX = "persistence.sql.";
+	/** true to time the statements, false (the default) to leave the connections unwrapped */
+	public static final String ENABLED = PREFIX + "timing";
+	/** milliseconds from which a statement is logged */
+	public static final String SLOW_THRESHOLD = PREFIX + "slow_threshold";
+	/** fingerprints on the top table */
+	public static final String TOP_SIZE = PREFIX + "top_size";
+	/** seconds of each window of the top table */
+	public static final String WINDOW = PREFIX + "window";
+	/** true to log the bind values of the slow statements (they may be sensitive) */
+	public static final String LOG_BINDS = PREFIX + "log_binds";
+
+	/** fingerprints kept per window, the others are summed up under OTHER */
+	static final int MAX_FINGERPRINTS = 5000;
+	static final String OTHER = "(other statements)";
+
+	private static final String[] DAO_CLASSES = { "br.com.ziben.persistence.GenericSessionDAO",
+			"br.com.ziben.persistence.ScrollIterator" };
+
+	private final String name;
+	private final long thresholdNanos;
+	private final int topSize;
+	private final long windowNanos;
+	private final boolean logBinds;
+
+	private volatile Window current = new Window(System.nanoTime());
+	private volatile Window previous = null;
+
+	public SlowQueryLog(String name, long thresholdMillis, int topSize, long windowSeconds, boolean logBinds) {
+		this.name = name;
+		this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+		this.topSize = topSize;
+		this.windowNanos = TimeUnit.SECONDS.toNanos(windowSeconds);
+		this.logBinds = logBinds;
+	}
+
+	/**
+	 * @param name of the pool or factory, on the log lines
+	 * @param settings of the factory
+	 * @return the log configured by the persistence.sql.* settings, or null if disabled
+	 */
+	@SuppressWarnings("rawtypes")
+	public static SlowQueryLog configure(String name, Map settings) {
+		if (!Boolean.parseBoolean(string(settings, ENABLED, "false"))) {
+			return null;
+		}
+		return new SlowQueryLog(name, integer(settings, SLOW_THRESHOLD, 500), (int) integer(settings, TOP_SIZE, 20),
+				integer(settings, WINDOW, 900), Boolean.parseBoolean(string(settings, LOG_BINDS, "false")));
+	}
+
+	/**
+	 * @param connection
+	 * @return the connection, timing the statements it creates
+	 */
+	public Connection wrap(Connection connection) {
+		return TimedJdbc.connection(connection, this);
+	}
+
+	boolean isLogBinds() {
+		return logBinds;
+	}
+
+	/**
+	 * Account one execution
+	 * @param sql
+	 * @param nanos
+	 * @param rows read or changed, negative if unknown
+	 * @param binds the bind values, null if not kept
+	 */
+	void record(String sql, long nanos, long rows, Object binds) {
+		boolean isSlow = nanos >= thresholdNanos;
+		window().statsOf(SqlFingerprint.of(sql)).record(nanos, rows, isSlow);
+		if (isSlow && log.isEnabledFor(Level.WARN)) {
+			log.warn("Slow SQL on " + name + ": " + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms, "
+					+ (rows < 0 ? "?" : String.valueOf(rows)) + " rows, at " + caller() + ": " + sql
+					+ (binds == null ? "" : " binds " + binds));
+		}
+	}
+
+	/**
+	 * @return the most expensive fingerprints of the current window, by total time
+	 */
+	public List<StatementStats> getTop() {
+		return top(current);
+	}
+
+	/**
+	 * @return the most expensive fingerprints of the last complete window, empty if none
+	 */
+	public List<StatementStats> getPreviousTop() {
+		Window last = previous;
+		return last == null ? Collections.<StatementStats> emptyList() : top(last);
+	}
+
+	/**
+	 * Start a new window, forgetting the current one
+	 */
+	public synchronized void reset() {
+		current = new Window(System.nanoTime());
+	}
+
+	public long getThresholdMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+	}
+
+	private List<StatementStats> top(Window window) {
+		List<StatementStats> all = new ArrayList<StatementStats>(window.stats.values());
+		Collections.sort(all, new Comparator<StatementStats>() {
+			@Override
+			public int compare(StatementStats a, StatementStats b) {
+				return Long.compare(b.getTotalNanos(), a.getTotalNanos());
+			}
+		});
+		return all.size() > topSize ? new ArrayList<StatementStats>(all.subList(0, topSize)) : all;
+	}
+
+	private Window window() {
+		Window window = current;
+		long now = System.nanoTime();
+		if (now - window.start < windowNanos) {
+			return window;
+		}
+		synchronized (this) {
+			if (current == window) {
+				previous = window;
+				current = new Window(now);
+			}
+			return current;
+		}
+	}
+
+	/**
+	 * The DAO method on the stack and the application method that called it
+	 */
+	static String caller() {
+		StackTraceElement[] stack = new Throwable().getStackTrace();
+		String dao = null;
+		for (final StackTraceElement frame : stack) {
+			if (isDaoFrame(frame.getClassName())) {
+				String className = frame.getClassName();
+				int dollar = className.indexOf('$');
+				dao = className.substring(className.lastIndexOf('.') + 1, dollar < 0 ? className.length() : dollar) + "."
+						+ frame.getMethodName();
+			} else if (dao != null) {
+				return frame + " via " + dao;
+			}
+		}
+		return dao == null ? "(no DAO on the stack)" : dao;
+	}
+
+	private static boolean isDaoFrame(String className) {
+		for (final String dao : DAO_CLASSES) {
+			if (className.startsWith(dao)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static String string(Map settings, String key, String defaultValue) {
+		Object value = settings.get(key);
+		return value == null || value.toString().trim().isEmpty() ? defaultValue : value.toString().trim();
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static long integer(Map settings, String key, long defaultValue) {
+		String value = string(settings, key, null);
+		try {
+			return value == null ? defaultValue : Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new HibernateException("Invalid value for " + key + ": " + value, e);
+		}
+	}
+
+	private static final class Window {
+		final long start;
+		final ConcurrentMap<String, StatementStats> stats = new ConcurrentHashMap<String, StatementStats>();
+
+		Window(long start) {
+			this.start = start;
+		}
+
+		StatementStats statsOf(String fingerprint) {
+			StatementStats statementStats = stats.get(fingerprint);
+			if (statementStats == null) {
+				String key = stats.size() < MAX_FINGERPRINTS ? fingerprint : OTHER;
+				StatementStats created = new StatementStats(key);
+				statementStats = stats.putIfAbsent(key, created);
+				if (statementStats == null) {
+					statementStats = created;
+				}
+			}
+			return statementStats;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.sql;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Normalized form of a SQL statement, the same for every execution of it whatever
+ * the values: string and numeric literals become ?, IN lists collapse to (?),
+ * whitespace collapses and everything is lower case.
+ * @author ccardozo
+ *
+ */
+public final class SqlFingerprint {
+
+	private static final Pattern IN_LIST = Pattern.compile("\\bin ?\\(\\?(?: ?, ?\\?)*\\)");
+
+	// the statements of an application are few: their fingerprints are kept, up to a limit
+	private static final int CACHE_LIMIT = 10000;
+	private static final ConcurrentMap<String, String> cache = new ConcurrentHashMap<String, String>();
+
+	private SqlFingerprint() {
+	}
+
+	/**
+	 * @param sql
+	 * @return the fingerprint of the statement
+	 */
+	public static String of(String sql) {
+		if (sql == null) {
+			return "";
+		}
+		String fingerprint = cache.get(sql);
+		if (fingerprint == null) {
+			fingerprint = normalize(sql);
+			if (cache.size() < CACHE_LIMIT) {
+				cache.putIfAbsent(sql, fingerprint);
+			}
+		}
+		return fingerprint;
+	}
+
+	static String normalize(String sql) {
+		StringBuilder out = new StringBuilder(sql.length());
+		int length = sql.length();
+		boolean space = false;
+		for (int i = 0; i < length; i++) {
+			char c = sql.charAt(i);
+			if (c == '\'') {
+				// string literal, '' is an escaped quote
+				i++;
+				while (i < length) {
+					if (sql.charAt(i) == '\'') {
+						if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+							i++;
+						} else {
+							break;
+						}
+					}
+					i++;
+				}
+				append(out, '?', space);
+				space = false;
+			} else if (Character.isDigit(c) && (space || !isIdentifierPart(out))) {
+				// numeric literal: digits, decimal point, exponent
+				while (i + 1 < length && (Character.isLetterOrDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.')) {
+					i++;
+				}
+				append(out, '?', space);
+				space = false;
+			} else if (Character.isWhitespace(c)) {
+				space = out.length() > 0;
+			} else {
+				append(out, Character.toLowerCase(c), space);
+				space = false;
+			}
+		}
+		return IN_LIST.matcher(out).replaceAll("in (?)");
+	}
+
+	private static void append(StringBuilder out, char c, boolean space) {
+		if (space) {
+			out.append(' ');
+		}
+		out.append(c);
+	}
+
+	private static boolean isIdentifierPart(StringBuilder out) {
+		if (out.length() == 0) {
+			return false;
+		}
+		char last = out.charAt(out.length() - 1);
+		return Character.isLetterOrDigit(last) || last == '_' || last == '$' || last == '"' || last == '`';
+	}
+}
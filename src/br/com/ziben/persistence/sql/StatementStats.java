@@ -0,0 +1,98 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.sql;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executions of the statements sharing a {@link SqlFingerprint}
+ * @author ccardozo
+ *
+ */
+public class StatementStats {
+
+	private final String fingerprint;
+	private final LongAdder executions = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+	private final LongAdder rows = new LongAdder();
+	private final LongAdder slow = new LongAdder();
+
+	StatementStats(String fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	void record(long nanos, long rowCount, boolean isSlow) {
+		executions.increment();
+		totalNanos.add(nanos);
+		if (rowCount > 0) {
+			rows.add(rowCount);
+		}
+		if (isSlow) {
+			slow.increment();
+		}
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	public long getExecutions() {
+		return executions.sum();
+	}
+
+	public long getTotalMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(totalNanos.sum());
+	}
+
+	long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	public double getMeanMillis() {
+		long n = executions.sum();
+		return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+	}
+
+	public long getMaxMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+	}
+
+	public long getRows() {
+		return rows.sum();
+	}
+
+	/**
+	 * @return executions over the slow threshold
+	 */
+	public long getSlowExecutions() {
+		return slow.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "StatementStats[total=" + getTotalMillis() + "ms, executions=" + getExecutions() + ", mean="
+				+ String.format("%.2f", getMeanMillis()) + "ms, max=" + getMaxMillis() + "ms, rows=" + getRows()
+				+ ", slow=" + getSlowExecutions() + "] " + fingerprint;
+	}
+}
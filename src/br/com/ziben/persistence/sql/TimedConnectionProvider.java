@@ -0,0 +1,138 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.hibernate.boot.registry.StandardServiceInitiator;
+import org.hibernate.engine.jdbc.connections.internal.ConnectionProviderInitiator;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.spi.ServiceBinding;
+import org.hibernate.service.spi.ServiceRegistryImplementor;
+import org.hibernate.service.spi.Stoppable;
+
+/**
+ * ConnectionProvider timing, with a {@link SlowQueryLog}, the connections of the one
+ * Hibernate would use anyway: the PooledConnectionProvider, a datasource (JNDI), the
+ * Hibernate pool or a provider of the application.<br>
+ * HibernateFactory installs its {@link Initiator} when persistence.sql.timing is true.
+ * @author ccardozo
+ *
+ */
+public class TimedConnectionProvider implements ConnectionProvider, Stoppable {
+
+	private static final long serialVersionUID = -6418236604926461803L;
+
+	private static final Logger log = Logger.getLogger(TimedConnectionProvider.class);
+
+	private final ServiceBinding<ConnectionProvider> delegate;
+	private final SlowQueryLog slowQueryLog;
+
+	TimedConnectionProvider(ServiceBinding<ConnectionProvider> delegate, SlowQueryLog slowQueryLog) {
+		this.delegate = delegate;
+		this.slowQueryLog = slowQueryLog;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return slowQueryLog.wrap(delegate.getService().getConnection());
+	}
+
+	@Override
+	public void closeConnection(Connection conn) throws SQLException {
+		// a provider keeping its connections (the Hibernate pool) must get its own back
+		delegate.getService().closeConnection(TimedJdbc.target(conn));
+	}
+
+	@Override
+	public boolean supportsAggressiveRelease() {
+		return delegate.getService().supportsAggressiveRelease();
+	}
+
+	/**
+	 * @return the statement timings of the connections
+	 */
+	public SlowQueryLog getSlowQueryLog() {
+		return slowQueryLog;
+	}
+
+	@Override
+	public void stop() {
+		delegate.getLifecycleOwner().stopService(delegate);
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public boolean isUnwrappableAs(Class unwrapType) {
+		return TimedConnectionProvider.class.isAssignableFrom(unwrapType) || delegate.getService().isUnwrappableAs(unwrapType);
+	}
+
+	/**
+	 * @return this provider, or else what the one it times unwraps as (its pool, its DataSource)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T unwrap(Class<T> unwrapType) {
+		if (TimedConnectionProvider.class.isAssignableFrom(unwrapType)) {
+			return (T) this;
+		}
+		return delegate.getService().unwrap(unwrapType);
+	}
+
+	/**
+	 * Initiates the provider Hibernate would, with its own lifecycle (injections,
+	 * configure(), start() and stop()), and wraps it
+	 */
+	public static class Initiator implements StandardServiceInitiator<ConnectionProvider> {
+		private final SlowQueryLog slowQueryLog;
+
+		public Initiator(SlowQueryLog slowQueryLog) {
+			this.slowQueryLog = slowQueryLog;
+		}
+
+		@Override
+		public Class<ConnectionProvider> getServiceInitiated() {
+			return ConnectionProvider.class;
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public ConnectionProvider initiateService(Map configurationValues, ServiceRegistryImplementor registry) {
+			ConnectionProvider provider = ConnectionProviderInitiator.INSTANCE.initiateService(configurationValues, registry);
+			if (provider == null) {
+				// multi-tenancy: the connections come from a MultiTenantConnectionProvider
+				log.warn("No ConnectionProvider to time, persistence.sql.timing ignored");
+				return null;
+			}
+			if (!(registry instanceof ServiceBinding.ServiceLifecycleOwner)) {
+				log.warn("Unknown service registry " + registry.getClass().getName() + ", persistence.sql.timing ignored");
+				return provider;
+			}
+			ServiceBinding.ServiceLifecycleOwner owner = (ServiceBinding.ServiceLifecycleOwner) registry;
+			ServiceBinding<ConnectionProvider> binding = new ServiceBinding<ConnectionProvider>(owner, ConnectionProvider.class,
+					provider);
+			owner.injectDependencies(binding);
+			owner.configureService(binding);
+			owner.startService(binding);
+			log.info("Timing the statements of " + provider.getClass().getName());
+			return new TimedConnectionProvider(binding, slowQueryLog);
+		}
+	}
+}
@@ -0,0 +1,251 @@
+/*
+This file is part of sensus-persistence (SessionFactory on Hibernate).
+
+Sensus-persistence is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+Sensus-persistence is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with sensus-persistence.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package br.com.ziben.persistence.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Dynamic proxies timing the executions of a connection: the statements it creates
+ * time each execute*, and the result sets add the time spent fetching their rows
+ * (next()) and count them, reporting on close.
+ * @author ccardozo
+ *
+ */
+final class TimedJdbc {
+
+	private TimedJdbc() {
+	}
+
+	static Connection connection(Connection target, SlowQueryLog slowLog) {
+		return (Connection) Proxy.newProxyInstance(TimedJdbc.class.getClassLoader(), new Class<?>[] { Connection.class },
+				new ConnectionHandler(target, slowLog));
+	}
+
+	/**
+	 * @return the connection a proxy of {@link #connection} times, or the one given
+	 */
+	static Connection target(Connection connection) {
+		if (Proxy.isProxyClass(connection.getClass())) {
+			InvocationHandler handler = Proxy.getInvocationHandler(connection);
+			if (handler instanceof ConnectionHandler) {
+				return ((ConnectionHandler) handler).target;
+			}
+		}
+		return connection;
+	}
+
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * equals/hashCode by identity of the proxy, so it can be a key of Hibernate maps
+	 * @return the result, or null if not one of them
+	 */
+	private static Object identity(Object proxy, Method method, Object[] args) {
+		if ("equals".equals(method.getName()) && args != null && args.length == 1) {
+			return proxy == args[0];
+		}
+		if ("hashCode".equals(method.getName()) && (args == null || args.length == 0)) {
+			return System.identityHashCode(proxy);
+		}
+		return null;
+	}
+
+	private static final class ConnectionHandler implements InvocationHandler {
+		private final Connection target;
+		private final SlowQueryLog slowLog;
+
+		ConnectionHandler(Connection target, SlowQueryLog slowLog) {
+			this.target = target;
+			this.slowLog = slowLog;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object identity = identity(proxy, method, args);
+			if (identity != null) {
+				return identity;
+			}
+			Object result = TimedJdbc.invoke(target, method, args);
+			String name = method.getName();
+			if (result instanceof Statement && (name.startsWith("prepare") || name.equals("createStatement"))) {
+				String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+				return statement((Statement) result, sql, proxy);
+			}
+			return result;
+		}
+
+		private Statement statement(Statement statement, String sql, Object connection) {
+			Class<?> type = statement instanceof CallableStatement ? CallableStatement.class
+					: statement instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+			return (Statement) Proxy.newProxyInstance(TimedJdbc.class.getClassLoader(), new Class<?>[] { type },
+					new StatementHandler(statement, sql, connection, slowLog));
+		}
+	}
+
+	private static final class StatementHandler implements InvocationHandler {
+		private final Statement target;
+		private final String preparedSql;
+		private final Object connection;
+		private final SlowQueryLog slowLog;
+		private final Map<Integer, Object> binds;
+		// SQL added to a plain Statement batch
+		private String batchSql;
+		// last result set handed out, reported with the statement if not closed before
+		private ResultSetHandler results;
+
+		StatementHandler(Statement target, String preparedSql, Object connection, SlowQueryLog slowLog) {
+			this.target = target;
+			this.preparedSql = preparedSql;
+			this.connection = connection;
+			this.slowLog = slowLog;
+			this.binds = slowLog.isLogBinds() && preparedSql != null ? new TreeMap<Integer, Object>() : null;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object identity = identity(proxy, method, args);
+			if (identity != null) {
+				return identity;
+			}
+			String name = method.getName();
+			if (name.startsWith("execute")) {
+				return execute(method, args);
+			}
+			if (binds != null && name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+				binds.put((Integer) args[0], args[1]);
+			} else if (binds != null && name.equals("clearParameters")) {
+				binds.clear();
+			} else if (name.equals("addBatch") && args != null && args.length == 1 && batchSql == null) {
+				batchSql = (String) args[0];
+			} else if (name.equals("getConnection")) {
+				return connection;
+			} else if (name.equals("close") && results != null) {
+				results.report();
+			}
+			return TimedJdbc.invoke(target, method, args);
+		}
+
+		private Object execute(Method method, Object[] args) throws Throwable {
+			String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0]
+					: preparedSql != null ? preparedSql : batchSql;
+			String name = method.getName();
+			long start = System.nanoTime();
+			Object result;
+			try {
+				result = TimedJdbc.invoke(target, method, args);
+			} catch (Throwable e) {
+				slowLog.record(sql, System.nanoTime() - start, -1, snapshot());
+				throw e;
+			}
+			long elapsed = System.nanoTime() - start;
+			if (result instanceof ResultSet) {
+				// reported when closed, with the fetch time and the rows
+				if (results != null) {
+					results.report();
+				}
+				results = new ResultSetHandler((ResultSet) result, sql, elapsed, snapshot(), slowLog);
+				return Proxy.newProxyInstance(TimedJdbc.class.getClassLoader(), new Class<?>[] { ResultSet.class }, results);
+			}
+			long rows = -1;
+			if (result instanceof Number) {
+				rows = ((Number) result).longValue();
+			} else if (result instanceof int[]) {
+				rows = 0;
+				for (final int count : (int[]) result) {
+					rows += Math.max(0, count);
+				}
+			} else if (result instanceof long[]) {
+				rows = 0;
+				for (final long count : (long[]) result) {
+					rows += Math.max(0, count);
+				}
+			}
+			if (name.equals("executeBatch")) {
+				batchSql = null;
+			}
+			slowLog.record(sql, elapsed, rows, snapshot());
+			return result;
+		}
+
+		private Object snapshot() {
+			return binds == null ? null : new TreeMap<Integer, Object>(binds);
+		}
+	}
+
+	private static final class ResultSetHandler implements InvocationHandler {
+		private final ResultSet target;
+		private final String sql;
+		private final Object binds;
+		private final SlowQueryLog slowLog;
+		private long nanos;
+		private long rows;
+		private boolean reported;
+
+		ResultSetHandler(ResultSet target, String sql, long executeNanos, Object binds, SlowQueryLog slowLog) {
+			this.target = target;
+			this.sql = sql;
+			this.nanos = executeNanos;
+			this.binds = binds;
+			this.slowLog = slowLog;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object identity = identity(proxy, method, args);
+			if (identity != null) {
+				return identity;
+			}
+			String name = method.getName();
+			if (name.equals("next")) {
+				long start = System.nanoTime();
+				Object result = TimedJdbc.invoke(target, method, args);
+				nanos += System.nanoTime() - start;
+				if (Boolean.TRUE.equals(result)) {
+					rows++;
+				}
+				return result;
+			}
+			if (name.equals("close")) {
+				report();
+			}
+			return TimedJdbc.invoke(target, method, args);
+		}
+
+		void report() {
+			if (!reported) {
+				reported = true;
+				slowLog.record(sql, nanos, rows, binds);
+			}
+		}
+	}
+}